@@ -0,0 +1,31 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler (allocation rate and bytes per op next to each result)
+ * Throughput and latency modes are set per benchmark class
+ *
+ * Args: [regex of the benchmarks] (default: all), e.g. MemoCodecBench.decode
+ */
+public class BenchMain {
+
+    /**
+     * MAIN
+     * @param args Arguments
+     */
+    public static void main(String[] args) throws RunnerException {
+        final String include = args.length > 0 ? args[0] : "bench\\..*Bench";
+
+        final Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,123 @@
+package bench;
+
+import data.Memo;
+import data.MemoCodec;
+import data.MemoParser;
+import data.MemoPool;
+import experiment.Experiment.TECHNIQUE;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static data.Consts.STRINGS.*;
+
+/**
+ * Memo codec: text (valueOf/toString, pooled parsing), value accessors and binary frames
+ * Throughput (ops/us) and latency (sampled, us/op)
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoCodecBench {
+    private static final String SCROLL_LINE = "SCROLL,DRAG,-12.375,0.5,4711,1700000000123";
+    private static final String CONFIG_LINE = "CONFIG,KEEP_ALIVE,500,0";
+    private static final int N_BATCH_SAMPLES = 16;
+
+    private Memo mTextMemo; // String values (parsed on every access)
+    private Memo mNumericMemo; // Numeric values (as decoded)
+    private StringBuilder mLine; // As in the Server's line buffer
+    private ByteBuffer mFrame;
+    private ByteBuffer mBatchFrame;
+    private ByteBuffer mEncodeBuffer;
+
+    @Setup
+    public void setup() {
+        mTextMemo = new Memo(SCROLL, TECHNIQUE.DRAG.toString(), "-12.375", "0.5");
+        mNumericMemo = new Memo(SCROLL, TECHNIQUE.DRAG.toString(), -12.375, 0.5);
+        mNumericMemo.setSeq(4711);
+        mNumericMemo.setTimestamp(1700000000123L);
+        mLine = new StringBuilder(SCROLL_LINE);
+
+        mFrame = MemoCodec.encode(mNumericMemo);
+
+        final Memo batch = Memo.newBatch(TECHNIQUE.FLICK.toString(), 1700000000123L);
+        for (int i = 0; i < N_BATCH_SAMPLES; i++) batch.addSample(0.25 * i, 0, i * 1000);
+        mBatchFrame = MemoCodec.encode(batch);
+
+        mEncodeBuffer = ByteBuffer.allocate(MemoCodec.MAX_FRAME_SIZE);
+    }
+
+    // Text -------------------------------------------------------------------------------------
+
+    @Benchmark
+    public Memo valueOfScroll() {
+        return Memo.valueOf(SCROLL_LINE);
+    }
+
+    @Benchmark
+    public Memo valueOfConfig() {
+        return Memo.valueOf(CONFIG_LINE);
+    }
+
+    @Benchmark
+    public String toStringText() {
+        return mTextMemo.toString();
+    }
+
+    @Benchmark
+    public String toStringNumeric() {
+        return mNumericMemo.toString(); // Value Strings are created once (then kept)
+    }
+
+    @Benchmark
+    public double parsePooled() {
+        final Memo memo = MemoPool.acquire();
+        MemoParser.parse(mLine, memo);
+        final double result = memo.getValue1Double() + memo.getValue2Double();
+        MemoPool.release(memo);
+        return result;
+    }
+
+    // Accessors --------------------------------------------------------------------------------
+
+    @Benchmark
+    public double getValueDoubleText() {
+        return mTextMemo.getValue1Double() + mTextMemo.getValue2Double();
+    }
+
+    @Benchmark
+    public double getValueDoubleNumeric() {
+        return mNumericMemo.getValue1Double() + mNumericMemo.getValue2Double();
+    }
+
+    // Binary -----------------------------------------------------------------------------------
+
+    @Benchmark
+    public int encodeBinary() {
+        mEncodeBuffer.clear();
+        MemoCodec.encode(mNumericMemo, mEncodeBuffer);
+        return mEncodeBuffer.position();
+    }
+
+    @Benchmark
+    public double decodeBinaryPooled() {
+        mFrame.position(0);
+        final Memo memo = MemoCodec.decode(mFrame, MemoPool.acquire());
+        final double result = memo.getValue1Double() + memo.getValue2Double();
+        MemoPool.release(memo);
+        return result;
+    }
+
+    @Benchmark
+    public double decodeBatchPooled() {
+        mBatchFrame.position(0);
+        final Memo memo = MemoCodec.decode(mBatchFrame, MemoPool.acquire());
+        final double result = memo.getSampleVt(memo.getNSamples() - 1);
+        MemoPool.release(memo);
+        return result;
+    }
+}
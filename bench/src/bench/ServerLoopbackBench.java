@@ -0,0 +1,170 @@
+package bench;
+
+import control.Server;
+import data.Memo;
+import data.MemoCodec;
+import experiment.Experiment.TECHNIQUE;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static data.Consts.STRINGS.*;
+
+/**
+ * Full TCP-loopback path through the Server (binary framing, selector thread, decode, dispatch)
+ * SCROLL memos go to a no-op Controller (counts them), KEEP_ALIVEs come back as echoes
+ * Throughput (ops/us) and latency (sampled, us/op)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerLoopbackBench {
+    private static final String HOST = "localhost";
+    private static final int PORT = 8000;
+    private static final int BURST = 64; // Memos in one write
+
+    private final AtomicLong mNScrolled = new AtomicLong(); // Counted by the no-op Controller
+    private long mNSent;
+
+    private SocketChannel mChannel;
+    private ByteBuffer mScrollFrame;
+    private ByteBuffer mBurstFrames;
+    private ByteBuffer mKeepAliveFrame;
+    private final ByteBuffer mInBuffer = ByteBuffer.allocate(64 * 1024); // Fill mode
+    private final Memo mInMemo = new Memo();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        final Server server = Server.get();
+        server.setScrollSink(memo -> mNScrolled.incrementAndGet()); // No-op Controller
+        server.openConnection();
+
+        mChannel = SocketChannel.open(new InetSocketAddress(HOST, PORT));
+        mChannel.socket().setTcpNoDelay(true);
+
+        // Negotiate the binary framing (replies are text lines until then)
+        write(ByteBuffer.wrap((new Memo(CONNECTION, PROTOCOL, BIN, MemoCodec.VERSION) + "\n").getBytes()));
+        String line;
+        do { // CONFIG,CREDIT comes first
+            line = readLine();
+        } while (!line.isEmpty() && !line.contains(PROTOCOL));
+
+        final Memo scrollMemo = new Memo(SCROLL, TECHNIQUE.DRAG.toString(), 0.5, 0.0);
+        scrollMemo.setSeq(1);
+        scrollMemo.setTimestamp(System.currentTimeMillis());
+        mScrollFrame = MemoCodec.encode(scrollMemo);
+
+        mBurstFrames = ByteBuffer.allocate(BURST * mScrollFrame.remaining());
+        for (int i = 0; i < BURST; i++) mBurstFrames.put(mScrollFrame.duplicate());
+        mBurstFrames.flip();
+
+        mKeepAliveFrame = MemoCodec.encode(new Memo(CONNECTION, KEEP_ALIVE, 0, 0));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * One SCROLL memo, until the Controller has it
+     */
+    @Benchmark
+    public long scrollToController() throws IOException {
+        write(mScrollFrame.duplicate());
+        return awaitScrolled(++mNSent);
+    }
+
+    /**
+     * A burst of SCROLL memos in one write, until the Controller has all of them
+     */
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public long scrollBurstToController() throws IOException {
+        write(mBurstFrames.duplicate());
+        mNSent += BURST;
+        return awaitScrolled(mNSent);
+    }
+
+    /**
+     * One KEEP_ALIVE, until its echo is back (client -> Server -> client)
+     */
+    @Benchmark
+    public Memo keepAliveRoundTrip() throws IOException {
+        write(mKeepAliveFrame.duplicate());
+
+        Memo memo;
+        do { // Skip the clock probes (and anything else the Server sends)
+            memo = readMemo();
+        } while (memo.getModeType() != Memo.MODE.KEEP_ALIVE);
+
+        return memo;
+    }
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Wait (spin) until the Controller got a number of memos
+     * @param nMemos Number of memos (since the start)
+     * @return Number of memos
+     */
+    private long awaitScrolled(long nMemos) {
+        long nScrolled;
+        while ((nScrolled = mNScrolled.get()) < nMemos) Thread.onSpinWait();
+        return nScrolled;
+    }
+
+    /**
+     * Write a whole buffer (blocking)
+     * @param buffer Buffer (in read mode)
+     */
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) mChannel.write(buffer);
+    }
+
+    /**
+     * Read the next binary frame (blocking)
+     * @return Memo (reused)
+     */
+    private Memo readMemo() throws IOException {
+        while (true) {
+            mInBuffer.flip();
+            if (MemoCodec.availableFrame(mInBuffer) != -1) {
+                MemoCodec.decode(mInBuffer, mInMemo);
+                mInBuffer.compact();
+                return mInMemo;
+            }
+            mInBuffer.compact();
+
+            if (mChannel.read(mInBuffer) == -1) throw new EOFException("Server closed the connection");
+        }
+    }
+
+    /**
+     * Read one text line (blocking, byte by byte so no binary frame is read with it)
+     * @return Line (without the line break)
+     */
+    private String readLine() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        final ByteBuffer oneByte = ByteBuffer.allocate(1);
+        while (mChannel.read(oneByte) != -1) {
+            oneByte.flip();
+            final char c = (char) oneByte.get();
+            oneByte.clear();
+            if (c == '\n') break;
+            if (c != '\r') sb.append(c);
+        }
+
+        return sb.toString();
+    }
+}
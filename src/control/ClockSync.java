@@ -0,0 +1,173 @@
+package control;
+
+/**
+ * Estimates the offset (and drift) between the Moose's clock and the desktop's clock
+ * from SYNC round trips (NTP-style, see Server):
+ * desktop sends t0 -> Moose replies with its time tm -> desktop receives at t3
+ * offset = tm - (t0 + t3) / 2, rtt = t3 - t0
+ * Round trips much slower than the recent minimum are rejected (queued on one side -> asymmetric)
+ */
+public class ClockSync {
+
+    private static final int WINDOW = 32; // Number of accepted samples kept
+    private static final double MAX_RTT_FACTOR = 1.5; // Reject if rtt > factor * min rtt + slack
+    private static final long RTT_SLACK_MS = 2;
+
+    // Accepted samples (circular)
+    private final long[] mTimes = new long[WINDOW]; // Desktop time of the sample (ms)
+    private final double[] mOffsets = new double[WINDOW];
+    private final long[] mRtts = new long[WINDOW];
+    private int mNSamples;
+    private int mNext;
+
+    // Estimate
+    private double mOffset; // ms (Moose - desktop)
+    private double mDrift; // ms per ms
+    private long mRefTime; // Desktop time of the offset (ms)
+    private long mLastRtt;
+
+    // Counters
+    private long mNAccepted;
+    private long mNRejected;
+
+    /**
+     * Add a round trip
+     * @param t0 Desktop send time (ms)
+     * @param tm Moose time (ms)
+     * @param t3 Desktop receive time (ms)
+     * @return True if the sample was accepted
+     */
+    public synchronized boolean addSample(long t0, long tm, long t3) {
+        final long rtt = t3 - t0;
+        if (rtt < 0) {
+            mNRejected++;
+            return false;
+        }
+
+        // Outlier rejection (after a few samples)
+        if (mNSamples >= 4 && rtt > MAX_RTT_FACTOR * minRtt() + RTT_SLACK_MS) {
+            mNRejected++;
+            return false;
+        }
+
+        mTimes[mNext] = t3;
+        mOffsets[mNext] = tm - (t0 + t3) / 2.0;
+        mRtts[mNext] = rtt;
+        mNext = (mNext + 1) % WINDOW;
+        if (mNSamples < WINDOW) mNSamples++;
+        mLastRtt = rtt;
+        mNAccepted++;
+
+        estimate();
+        return true;
+    }
+
+    /**
+     * Convert a Moose timestamp to the desktop's clock
+     * @param mooseTime Moose time (ms)
+     * @return Desktop time (ms)
+     */
+    public synchronized long toDesktopTime(long mooseTime) {
+        if (mNSamples == 0) return mooseTime;
+        return Math.round(mooseTime - getOffsetAtMooseTime(mooseTime));
+    }
+
+    /**
+     * Get the offset at a desktop time
+     * @param time Desktop time (ms)
+     * @return Offset (Moose - desktop) in ms
+     */
+    public synchronized double getOffset(long time) {
+        return mOffset + mDrift * (time - mRefTime);
+    }
+
+    /**
+     * Get the offset at a Moose time (the drift is on the desktop's time base)
+     * Solves desktop = moose - offset(desktop) for the desktop time
+     * @param mooseTime Moose time (ms)
+     * @return Offset (Moose - desktop) in ms
+     */
+    public synchronized double getOffsetAtMooseTime(long mooseTime) {
+        final double sinceRef = (mooseTime - mOffset - mRefTime) / (1 + mDrift); // Desktop time - mRefTime
+        return mOffset + mDrift * sinceRef;
+    }
+
+    /**
+     * Has any sample been accepted?
+     * @return True/false
+     */
+    public synchronized boolean isSynced() {
+        return mNSamples > 0;
+    }
+
+    public synchronized double getOffset() {
+        return mOffset;
+    }
+
+    public synchronized double getDriftPpm() {
+        return mDrift * 1e6;
+    }
+
+    public synchronized long getLastRtt() {
+        return mLastRtt;
+    }
+
+    public synchronized long getNAccepted() {
+        return mNAccepted;
+    }
+
+    public synchronized long getNRejected() {
+        return mNRejected;
+    }
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Get the minimum rtt in the window
+     * @return Min rtt (ms)
+     */
+    private long minRtt() {
+        long result = Long.MAX_VALUE;
+        for (int i = 0; i < mNSamples; i++) result = Math.min(result, mRtts[i]);
+
+        return result;
+    }
+
+    /**
+     * Estimate the offset and drift (least squares on the window)
+     * The min-rtt sample gets the most weight (least queuing)
+     */
+    private void estimate() {
+        final int last = (mNext - 1 + WINDOW) % WINDOW;
+        mRefTime = mTimes[last];
+
+        // Weighted means (weight = 1 / (1 + rtt - minRtt))
+        final long minRtt = minRtt();
+        double sw = 0, st = 0, so = 0;
+        for (int i = 0; i < mNSamples; i++) {
+            final double w = 1.0 / (1 + mRtts[i] - minRtt);
+            sw += w;
+            st += w * (mTimes[i] - mRefTime);
+            so += w * mOffsets[i];
+        }
+        final double meanT = st / sw;
+        final double meanO = so / sw;
+
+        // Slope
+        double stt = 0, sto = 0;
+        for (int i = 0; i < mNSamples; i++) {
+            final double w = 1.0 / (1 + mRtts[i] - minRtt);
+            final double dt = (mTimes[i] - mRefTime) - meanT;
+            stt += w * dt * dt;
+            sto += w * dt * (mOffsets[i] - meanO);
+        }
+        mDrift = (mNSamples >= 8 && stt > 0) ? sto / stt : 0;
+        mOffset = meanO - mDrift * meanT; // At mRefTime
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("offset: %.2f ms | drift: %.1f ppm | rtt: %d ms | accepted: %d | rejected: %d",
+                mOffset, getDriftPpm(), mLastRtt, mNAccepted, mNRejected);
+    }
+}
@@ -0,0 +1,174 @@
+package control;
+
+/**
+ * Health of one connection (used only on the Server's selector thread)
+ * RTT from the SYNC probes (smoothed like TCP), jitter (RFC 3550 style), gaps between SCROLL samples
+ * The keep-alive interval is chosen so that a stall is detected within MAX_DETECT_MS on this link
+ */
+public class ConnectionHealth {
+
+    public enum STATE {
+        OK,
+        DEGRADED,   // Slow or jittery link, or long gaps inside gestures
+        STALLED     // Nothing received for longer than the stall timeout
+    }
+
+    public static final int MIN_KEEP_ALIVE_MS = 250;
+    public static final int MAX_KEEP_ALIVE_MS = 2000;
+    private static final int STALL_FACTOR = 3; // Missed keep-alives before a stall
+    private static final int MAX_DETECT_MS = 3000; // Stall must be detected within this (+ check period)
+    private static final double KEEP_ALIVE_CHANGE = 0.25; // Send the new interval only if it changed this much
+
+    // Degraded thresholds
+    private static final double DEGRADED_RTT_MS = 50;
+    private static final double DEGRADED_JITTER_MS = 20;
+    private static final long DEGRADED_GAP_MS = 100;
+    private static final long GESTURE_PAUSE_MS = 500; // Longer gaps are pauses between gestures (not counted)
+
+    // RTT
+    private double mSRtt; // ms
+    private double mRttVar; // ms
+    private double mJitter; // ms
+    private long mLastRtt = -1;
+    private long mNRtts;
+
+    // Arrivals
+    private long mLastArrivalMs; // Any memo
+    private long mLastScrollMs;
+    private long mMaxScrollGapMs; // Since the last report
+
+    // State
+    private STATE mState = STATE.OK;
+    private long mNStalls;
+    private int mKeepAliveMs = 1000; // Last interval sent to the Moose
+
+    /**
+     * Constructor
+     * @param nowMs Time of the connection (ms)
+     */
+    public ConnectionHealth(long nowMs) {
+        mLastArrivalMs = nowMs;
+    }
+
+    /**
+     * Add an RTT sample
+     * @param rttMs Round trip time (ms)
+     */
+    public void addRtt(long rttMs) {
+        if (rttMs < 0) return;
+
+        if (mNRtts == 0) {
+            mSRtt = rttMs;
+            mRttVar = rttMs / 2.0;
+        } else {
+            mRttVar += (Math.abs(mSRtt - rttMs) - mRttVar) / 4;
+            mSRtt += (rttMs - mSRtt) / 8;
+            mJitter += (Math.abs(rttMs - mLastRtt) - mJitter) / 16;
+        }
+        mLastRtt = rttMs;
+        mNRtts++;
+    }
+
+    /**
+     * A memo arrived
+     * @param nowMs Arrival time (ms)
+     * @param scroll Is it a SCROLL memo?
+     */
+    public void onMemo(long nowMs, boolean scroll) {
+        mLastArrivalMs = nowMs;
+        if (scroll) {
+            final long gap = nowMs - mLastScrollMs;
+            if (mLastScrollMs > 0 && gap < GESTURE_PAUSE_MS) mMaxScrollGapMs = Math.max(mMaxScrollGapMs, gap);
+            mLastScrollMs = nowMs;
+        }
+    }
+
+    /**
+     * Update the state
+     * @param nowMs Time (ms)
+     * @return True if the state changed
+     */
+    public boolean check(long nowMs) {
+        final STATE prevState = mState;
+
+        if (nowMs - mLastArrivalMs > getStallTimeoutMs()) {
+            if (mState != STATE.STALLED) mNStalls++;
+            mState = STATE.STALLED;
+        } else if (mSRtt > DEGRADED_RTT_MS || mJitter > DEGRADED_JITTER_MS || mMaxScrollGapMs > DEGRADED_GAP_MS) {
+            mState = STATE.DEGRADED;
+        } else {
+            mState = STATE.OK;
+        }
+
+        return mState != prevState;
+    }
+
+    /**
+     * Get the keep-alive interval that fits the link (if it differs enough from the last one)
+     * @return New interval (ms) or -1 if no change is needed
+     */
+    public int updateKeepAlive() {
+        final double rttBound = mSRtt + 4 * mRttVar;
+        final int interval = (int) Math.max(MIN_KEEP_ALIVE_MS,
+                Math.min(MAX_KEEP_ALIVE_MS, (MAX_DETECT_MS - rttBound) / STALL_FACTOR));
+
+        if (Math.abs(interval - mKeepAliveMs) < KEEP_ALIVE_CHANGE * mKeepAliveMs) return -1;
+
+        mKeepAliveMs = interval;
+        return interval;
+    }
+
+    /**
+     * Get the time without any memo after which the link is stalled
+     * @return Timeout (ms)
+     */
+    public long getStallTimeoutMs() {
+        return (long) (STALL_FACTOR * mKeepAliveMs + mSRtt + 4 * mRttVar);
+    }
+
+    /**
+     * Get the time since the last memo
+     * @param nowMs Time (ms)
+     * @return Time (ms)
+     */
+    public long getSilenceMs(long nowMs) {
+        return nowMs - mLastArrivalMs;
+    }
+
+    /**
+     * Reset the max SCROLL gap (after each report)
+     */
+    public void resetMaxScrollGap() {
+        mMaxScrollGapMs = 0;
+    }
+
+    public STATE getState() {
+        return mState;
+    }
+
+    public double getSRtt() {
+        return mSRtt;
+    }
+
+    public double getJitter() {
+        return mJitter;
+    }
+
+    public long getMaxScrollGapMs() {
+        return mMaxScrollGapMs;
+    }
+
+    public long getNStalls() {
+        return mNStalls;
+    }
+
+    public int getKeepAliveMs() {
+        return mKeepAliveMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s | srtt: %.1f ms | jitter: %.1f ms | keep-alive: %d ms | max scroll gap: %d ms | stalls: %d",
+                mState, mSRtt, mJitter, mKeepAliveMs, mMaxScrollGapMs, mNStalls);
+    }
+}
@@ -2,6 +2,7 @@ package control;
 
 import data.Memo;
 import experiment.Experiment;
+import experiment.Experiment.TECHNIQUE;
 import gui.ExperimentFrame;
 import tools.*;
 
@@ -9,79 +10,23 @@ import java.awt.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import static data.Consts.STRINGS.FLING;
+
 /**
  * Class responsible for getting the data from the Server and perform the actions
  */
-public class Controller {
+public class Controller implements ScrollSink {
     private final String NAME = "Controller/"; // class tag
     //----------------------------------------------------------------
 
     public static Controller instance; // Singleton
 
-    private Thread scrollThread;
     private Robot robot;
 
     private ExecutorService executor;
-    private ThreadGroup scrollThreadGroup;
-    private boolean toScroll = false;
-
-    //----------------------------------------------------------------
-
-    // For scrolling constantly!
-    private class ConstantScrollRunnable implements Runnable {
-
-        private final int vtScrollAmt; // Movement delta / 1 ms
-        private final int hzScrollAmt; // Movement delta / 1 ms
-
-        private ConstantScrollRunnable(int vtScrollAmt, int hzScrollAmt) {
-            this.vtScrollAmt = vtScrollAmt;
-            this.hzScrollAmt = hzScrollAmt;
-        }
-
-        @Override
-        public void run() {
-            String TAG = NAME + "ConstantScrollRunnable";
-            try {
-                Logs.d(TAG, toScroll);
-                while (toScroll) {
-                    Logs.d(TAG, "Scrolling with", vtScrollAmt, hzScrollAmt);
-                    ExperimentFrame.get().scroll(vtScrollAmt, hzScrollAmt);
-                    Thread.currentThread().sleep(1); // 1 min = 60*1000, 1 sec = 1000
-                }
-            } catch (InterruptedException e) {
-                Logs.d(TAG, "Interrupted!", 0);
-                // Pls continue!
-                if (toScroll) {
-                    Thread.currentThread().resume();
-                } else {
-                    Thread.currentThread().interrupt();
-                }
-//                toScroll = false;
-
-            }
-        }
-    }
-
-    // For scrolling constantly!
-    private class ScrollRunnable implements Runnable {
-
-        private final int vtScrollAmt; // Movement delta / 1 ms
-        private final int hzScrollAmt; // Movement delta / 1 ms
-
-        private ScrollRunnable(int vtScrollAmt, int hzScrollAmt) {
-            this.vtScrollAmt = vtScrollAmt;
-            this.hzScrollAmt = hzScrollAmt;
-        }
-
-        @Override
-        public void run() {
-            String TAG = NAME + "ConstantScrollRunnable";
-            Logs.d(TAG, toScroll);
-            ExperimentFrame.get().scroll(vtScrollAmt, hzScrollAmt);
-            Thread.currentThread().interrupt();
-        }
-    }
-
+    private final ScrollPacer mScrollPacer = new ScrollPacer(); // Rate-based scrolling
+    private final ThreadLocal<Logger.SampleInfo> mSampleInfo = // Reused (scroll runs on several threads)
+            ThreadLocal.withInitial(Logger.SampleInfo::new);
 
     //----------------------------------------------------------------
 
@@ -101,9 +46,16 @@ public class Controller {
         String TAG = NAME;
 
         try {
-            robot = new Robot();
-            executor = Executors.newCachedThreadPool(); // Init executerService for running threads
-            scrollThreadGroup = new ThreadGroup("Scrolls");
+            // On the experiment's screen (headless -> simulator)
+            if (!GraphicsEnvironment.isHeadless()) robot = new Robot(ExperimentFrame.getExpScreen());
+            executor = Executors.newCachedThreadPool(r -> { // Init executerService for running threads
+                final Thread thread = new Thread(r, "Controller-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            // Long-lived pacer for the rate-based scrolling (no thread per memo)
+            executor.execute(mScrollPacer);
 
         } catch (AWTException e) {
             Logs.d(TAG, "Robot couldn't be initialized!");
@@ -113,68 +65,249 @@ public class Controller {
 
     /**
      * Perform the action (can be scrolling or stopping a scroll)
+     * The memo is not kept after (it goes back to the MemoPool)
+     * DRAG and FLICK samples don't allocate outside a trial (logging builds a line, a rate-based memo its Velocity)
      * @param memo Memo containing info
      */
+    @Override
     public void scroll(Memo memo) {
         String TAG = NAME + "perform";
-        Logs.d(TAG, "Received", memo.toString());
+        memo.setDispatchNs(System.nanoTime());
+        if (memo.isBatch()) {
+            scrollBatch(memo);
+            return;
+        }
+        if (memo.getActionType() == Memo.ACTION.FLING) {
+            fling(memo);
+            return;
+        }
 
-        final int vtScrollAmt = Utils.mm2px(memo.getValue1Double());
-        final int hzScrollAmt = Utils.mm2px(memo.getValue2Double());
+        final int sourceId = memo.getSourceId(); // Credits go back to that client
+        FlowControl.get().received(sourceId, 1);
+        Logs.d(TAG, "Received", memo);
 
-        final Experiment.TECHNIQUE technique = Experiment.TECHNIQUE.valueOf(memo.getMode());
+        // Log every raw sample (amounts are merged per frame)
+        final Logger.GeneralInfo genInfo = getSampleLogInfo();
+        if (genInfo != null) {
+            logSample(genInfo, memo.getMode(), memo.getValue1Double(), memo.getValue2Double(),
+                    memo.getTimestamp(), memo.getSenderOffsetMs());
+        }
+
+        final Experiment.TECHNIQUE technique = memo.getTechnique(); // Resolved when decoded
         Logs.d(TAG, technique);
+        if (technique == null) { // Not a technique (nothing to scroll)
+            FlowControl.get().applied(sourceId, 1);
+            return;
+        }
+
+        // Through the technique's transfer function (fractions add up in the coalescer)
+        final TransferFunction function = TransferFunctions.get().getFunction(technique);
+        final double vtScrollAmt = Utils.mm2pxDouble(function.apply(memo.getValue1Double()));
+        final double hzScrollAmt = Utils.mm2pxDouble(function.apply(memo.getValue2Double()));
+
         switch (technique) {
             case DRAG -> {
-                scrollThread = new Thread(new ScrollRunnable(vtScrollAmt, hzScrollAmt));
-                scrollThread.start();
+                final long sampleNs = memo.getArrivalNs() != 0 ? memo.getArrivalNs() : memo.getDispatchNs();
+                submitSample(technique, vtScrollAmt, hzScrollAmt, sampleNs, sourceId,
+                        memo.getArrivalNs(), memo.getDispatchNs(), LatencyMonitor.networkDelay(memo));
+                if (memo.isStopMemo()) ScrollPredictor.get().stop();
             }
 
-            case FLICK -> {
-                ExperimentFrame.get().scroll(vtScrollAmt, hzScrollAmt);
+            case FLICK -> { // A touch (moving or STOP) ends the glide of the prev. flick
+                FlickEngine.get().interrupt();
+                if (memo.isStopMemo()) {
+                    FlowControl.get().applied(sourceId, 1);
+                    ScrollPredictor.get().stop();
+                } else {
+                    final long sampleNs = memo.getArrivalNs() != 0 ? memo.getArrivalNs() : memo.getDispatchNs();
+                    submitSample(technique, vtScrollAmt, hzScrollAmt, sampleNs, sourceId,
+                            memo.getArrivalNs(), memo.getDispatchNs(), LatencyMonitor.networkDelay(memo));
+                }
             }
 
             case RATE_BASED -> {
-                // Stop prev. scrolling if new command has come
-                stopScroll();
+                FlowControl.get().applied(sourceId, 1); // Only sets the rate
 
-                // New scrolling
-                if (!memo.isStopMemo()) {
+                // New rate replaces the prev. one (STOP -> no rate)
+                if (memo.isStopMemo()) {
+                    stopScroll();
+                } else {
                     Logs.d(TAG, "RB", memo.getValue1());
-                    toScroll = true;
-                    scrollThread = new Thread(new ConstantScrollRunnable(vtScrollAmt, hzScrollAmt));
-                    scrollThread.start();
+                    mScrollPacer.setVelocity(new ScrollPacer.Velocity(vtScrollAmt, hzScrollAmt, memo));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Unpack a SCROLL_BATCH: each sample is logged and submitted in order (merged per frame like single memos)
+     * For rate-based, only the last sample sets the rate (the earlier ones are already superseded)
+     * @param memo SCROLL_BATCH Memo
+     */
+    private void scrollBatch(Memo memo) {
+        String TAG = NAME + "scrollBatch";
+
+        final int nSamples = memo.getNSamples();
+        final int sourceId = memo.getSourceId();
+        FlowControl.get().received(sourceId, nSamples);
+        Logs.d(TAG, "Received", memo);
+
+        final Experiment.TECHNIQUE technique = memo.getTechnique();
+        if (technique == null || nSamples == 0) {
+            FlowControl.get().applied(sourceId, nSamples);
+            return;
+        }
+
+        final double offsetMs = memo.getSenderOffsetMs();
+        final Logger.GeneralInfo genInfo = getSampleLogInfo();
+        for (int i = 0; genInfo != null && i < nSamples; i++) {
+            logSample(genInfo, memo.getMode(), memo.getSampleVt(i), memo.getSampleHz(i),
+                    memo.getSampleTimestampMs(i), offsetMs);
+        }
+
+        final TransferFunction function = TransferFunctions.get().getFunction(technique); // Same for the whole batch
+        switch (technique) {
+            case DRAG, FLICK -> {
+                if (technique == TECHNIQUE.FLICK) FlickEngine.get().interrupt(); // A touch
+
+                // Times of the samples: the last one arrived, the others are earlier by their offsets
+                final long lastNs = memo.getArrivalNs() != 0 ? memo.getArrivalNs() : memo.getDispatchNs();
+                final int lastOffsetUs = memo.getSampleOffsetUs(nSamples - 1);
+                for (int i = 0; i < nSamples; i++) {
+                    submitSample(technique,
+                            Utils.mm2pxDouble(function.apply(memo.getSampleVt(i))),
+                            Utils.mm2pxDouble(function.apply(memo.getSampleHz(i))),
+                            lastNs - (lastOffsetUs - memo.getSampleOffsetUs(i)) * 1000L, sourceId,
+                            memo.getArrivalNs(), memo.getDispatchNs(),
+                            LatencyMonitor.networkDelay(memo.getSampleTimestampMs(i), offsetMs));
                 }
             }
+
+            case RATE_BASED -> {
+                FlowControl.get().applied(sourceId, nSamples); // Only sets the rate
+                final int last = nSamples - 1;
+                mScrollPacer.setVelocity(new ScrollPacer.Velocity(
+                        Utils.mm2pxDouble(function.apply(memo.getSampleVt(last))),
+                        Utils.mm2pxDouble(function.apply(memo.getSampleHz(last))), memo));
+            }
+
+            default -> FlowControl.get().applied(sourceId, nSamples);
+        }
+    }
+
+    /**
+     * Submit the amount of a DRAG/FLICK sample, through the ScrollPredictor if it's on
+     * (then the coalescer only gets the sample's stamps and credit, the predictor moves the position)
+     * @param technique Technique
+     * @param vtScrollAmt Vertical amount (px)
+     * @param hzScrollAmt Horizontal amount (px)
+     * @param sampleNs Time of the sample (nanoTime)
+     * @param sourceId Id of the client of the sample (0 = none)
+     * @param arrivalNs Socket arrival (nanoTime, 0 = not stamped)
+     * @param dispatchNs Controller dispatch (nanoTime)
+     * @param networkMs Network delay (ms, -1 if not known)
+     */
+    private void submitSample(TECHNIQUE technique, double vtScrollAmt, double hzScrollAmt, long sampleNs,
+                              int sourceId, long arrivalNs, long dispatchNs, long networkMs) {
+        final ScrollPredictor predictor = ScrollPredictor.get();
+        if (predictor.isEnabled()) {
+            predictor.sample(technique, vtScrollAmt, hzScrollAmt, sampleNs);
+            ScrollCoalescer.get().submit(0, 0, technique, sourceId, arrivalNs, dispatchNs, networkMs);
+        } else {
+            ScrollCoalescer.get().submit(vtScrollAmt, hzScrollAmt, technique, sourceId,
+                    arrivalNs, dispatchNs, networkMs);
+        }
+    }
+
+    /**
+     * Start the glide of a flick from its release velocity (the FlickEngine animates it)
+     * @param memo FLING Memo (values: velocity in mm/s)
+     */
+    private void fling(Memo memo) {
+        String TAG = NAME + "fling";
+
+        FlowControl.get().received(memo.getSourceId(), 1);
+        FlowControl.get().applied(memo.getSourceId(), 1); // Only sets the velocity
+        Logs.d(TAG, "Received", memo);
+
+        final Logger.GeneralInfo genInfo = getSampleLogInfo();
+        if (genInfo != null) {
+            logSample(genInfo, FLING, memo.getValue1Double(), memo.getValue2Double(),
+                    memo.getTimestamp(), memo.getSenderOffsetMs());
         }
 
+        FlickEngine.get().fling(
+                Utils.mm2pxDouble(memo.getValue1Double()), Utils.mm2pxDouble(memo.getValue2Double()));
+    }
+
+    /**
+     * Get the info for logging the raw samples
+     * @return GeneralInfo or null if not in a trial (no logging)
+     */
+    private Logger.GeneralInfo getSampleLogInfo() {
+        if (GraphicsEnvironment.isHeadless()) return null; // No experiment (simulator)
+
+        final Logger.GeneralInfo genInfo = ExperimentFrame.get().getGenInfo();
+        return genInfo == null || genInfo.trial == null ? null : genInfo;
+    }
+
+    /**
+     * Log a raw sample (the line is built before returning, so the SampleInfo is reused)
+     * @param genInfo GeneralInfo
+     * @param mode Mode
+     * @param value1 Value 1
+     * @param value2 Value 2
+     * @param sentMs Moose's time of the sample (ms, 0 = not sent)
+     * @param offsetMs Moose's clock - desktop's clock (ms, NaN = not synced)
+     */
+    private void logSample(Logger.GeneralInfo genInfo, String mode, double value1, double value2,
+                           double sentMs, double offsetMs) {
+        final Logger.SampleInfo sampleInfo = mSampleInfo.get();
+        sampleInfo.mode = mode;
+        sampleInfo.value1 = value1;
+        sampleInfo.value2 = value2;
+        sampleInfo.sentMoment = sentMs == 0 ? 0 : Math.round(Double.isNaN(offsetMs) ? sentMs : sentMs - offsetMs);
+        sampleInfo.moment = Utils.nowInMillis();
+        Logger.get().logSampleInfo(genInfo, sampleInfo);
     }
 
     public void stopScroll() {
         final String TAG = NAME + "stopScroll";
         Logs.d(TAG, "Stop Scroll", "");
-        if (scrollThread != null && !scrollThread.isInterrupted()) {
-            toScroll = false;
-            scrollThread.interrupt();
-        }
+        mScrollPacer.stop();
     }
 
     public void testScroll(int vtAmt) {
-        toScroll = true;
-        scrollThread = new Thread(new ConstantScrollRunnable(vtAmt, 0));
-        scrollThread.start();
+        mScrollPacer.setVelocity(new ScrollPacer.Velocity(vtAmt, 0, null));
     }
 
     public void testStopScroll() {
+        stopScroll();
+    }
 
-        if (scrollThread != null && !scrollThread.isInterrupted()) {
-            toScroll = false;
-            scrollThread.stop();
-        }
-
-//        scrollThread.interrupt();
+    /**
+     * Stop the scroll pacer and the executor (end of the app or a benchmark)
+     */
+    public void shutdown() {
+        mScrollPacer.shutdown();
+        executor.shutdown();
     }
 
+    /**
+     * Get the Robot on the experiment's screen (e.g. for the synthetic input of the InputDriver)
+     * @return Robot (null if headless)
+     */
+    public Robot getRobot() {
+        return robot;
+    }
 
+    /**
+     * Get the pacer of the rate-based scrolling (e.g. for its jitter stats)
+     * @return ScrollPacer
+     */
+    public ScrollPacer getScrollPacer() {
+        return mScrollPacer;
+    }
 
 }
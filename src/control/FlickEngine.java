@@ -0,0 +1,122 @@
+package control;
+
+import tools.Logs;
+
+/**
+ * Desktop-side inertia of the flicks: the Moose sends the release velocity (FLING), the glide is simulated here
+ * Velocity decays exponentially, v(t) = v0 * e^(-k t) with k = FRICTION_SCALE * coef (the flick coef. of the
+ * TechConfigPanel). Each frame moves by the exact integral over its dt (independent of the frame rate)
+ * The glide runs as a frame task of the ScrollCoalescer (one clock for all the frames)
+ * A new touch (any FLICK SCROLL or STOP) interrupts the glide
+ */
+public class FlickEngine {
+    private final static String NAME = "FlickEngine/";
+    // -------------------------------------------------------------------------------------------
+    private static final FlickEngine self = new FlickEngine(); // Singleton (eager: used from several threads)
+
+    public static final double DEFAULT_COEF = 0.1; // Same as the TechConfigPanel's default
+    private static final double FRICTION_SCALE = 20; // k (1/s) = FRICTION_SCALE * coef
+    private static final double MIN_SPEED = 20; // px/s (the glide ends below this)
+
+    private volatile double mFriction = FRICTION_SCALE * DEFAULT_COEF; // k (1/s)
+
+    // Glide (guarded by this: set from the receiving thread, advanced on the EDT)
+    private boolean mActive;
+    private double mVtSpeed, mHzSpeed; // px/s at mLastNs
+    private long mLastNs;
+
+    // Stats
+    private long mNFlings;
+    private long mNInterrupted;
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Get the instance
+     * @return Singleton instance
+     */
+    public static FlickEngine get() {
+        return self;
+    }
+
+    /**
+     * Constructor
+     */
+    private FlickEngine() {
+        ScrollCoalescer.get().addFrameTask(this::advance); // Returns right away when not gliding
+    }
+
+    /**
+     * Start a glide (replaces the current one, from any thread)
+     * @param vtSpeed Vertical release velocity (px/s)
+     * @param hzSpeed Horizontal release velocity (px/s)
+     */
+    public void fling(double vtSpeed, double hzSpeed) {
+        final String TAG = NAME + "fling";
+
+        synchronized (this) {
+            mVtSpeed = vtSpeed;
+            mHzSpeed = hzSpeed;
+            mLastNs = System.nanoTime();
+            mActive = true;
+            mNFlings++;
+        }
+
+        ScrollCoalescer.get().requestFrame();
+        Logs.d(TAG, vtSpeed, hzSpeed);
+    }
+
+    /**
+     * Stop the glide (a new touch, from any thread)
+     */
+    public synchronized void interrupt() {
+        if (mActive) mNInterrupted++;
+        mActive = false; // The coalescer's clock stops when nothing is submitted
+    }
+
+    /**
+     * Set the friction from the flick coefficient
+     * @param coef Coefficient (> 0, higher -> shorter glides)
+     */
+    public void setCoef(double coef) {
+        mFriction = FRICTION_SCALE * Math.max(coef, 0.01);
+    }
+
+    public synchronized boolean isActive() {
+        return mActive;
+    }
+
+    /**
+     * Move the glide by one frame (on the EDT, at the start of the coalescer's frame)
+     */
+    private void advance() {
+        final double vt, hz;
+        synchronized (this) {
+            if (!mActive) return;
+
+            final long now = System.nanoTime();
+            final double dt = (now - mLastNs) / 1e9;
+            mLastNs = now;
+
+            // Distance = integral of v0 * e^(-k t) over dt
+            final double k = mFriction;
+            final double decay = Math.exp(-k * dt);
+            vt = mVtSpeed * (1 - decay) / k;
+            hz = mHzSpeed * (1 - decay) / k;
+            mVtSpeed *= decay;
+            mHzSpeed *= decay;
+
+            if (Math.hypot(mVtSpeed, mHzSpeed) < MIN_SPEED) mActive = false;
+        }
+
+        ScrollCoalescer.get().submit(vt, hz); // Part of this frame, fractions are carried by the coalescer
+    }
+
+    /**
+     * Get the glide stats
+     * @return String (flings, interrupted, friction)
+     */
+    public synchronized String getStats() {
+        return String.format("flings: %d | interrupted: %d | friction: %.1f /s", mNFlings, mNInterrupted, mFriction);
+    }
+}
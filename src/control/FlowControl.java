@@ -0,0 +1,213 @@
+package control;
+
+import data.Memo;
+import tools.Logs;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static data.Consts.STRINGS.*;
+
+/**
+ * Credit-based flow control of the SCROLL samples (desktop -> Moose)
+ * Each Moose (client) gets its own budget of in-flight samples (CONFIG,CREDIT,n,budget) and may only send while
+ * it has credits; credits are given back (in batches, only to that client) as its samples are applied on the EDT
+ * Samples are counted by the id of the client they came from (Memo.getSourceId), 0 = no client (not counted)
+ * Past a threshold of pending samples (a stalled EDT), they can be dropped as samples if the policy says so:
+ * their credits are given back early (the Moose keeps sending) and their latency stamps are not recorded. Their
+ * amounts are still applied: they are deltas, so dropping them would move the view away from the finger
+ * (and from the logged samples)
+ */
+public class FlowControl {
+    private final static String NAME = "FlowControl/";
+    // -------------------------------------------------------------------------------------------
+    private static final FlowControl self = new FlowControl(); // Singleton (eager: used from several threads)
+
+    public enum POLICY {
+        NONE,       // Apply everything (late)
+        DROP_OLDEST // Past the threshold, give back the pending samples' credits (amounts are still applied)
+    }
+
+    private volatile int mBudget = 256; // Samples in flight (per client)
+    private volatile int mDropThreshold = 128; // Pending (not applied) samples
+    private volatile POLICY mPolicy = POLICY.NONE;
+
+    // Credits of one client
+    private static class Account {
+        final int clientId;
+        final AtomicInteger inFlight = new AtomicInteger(); // Received, not applied
+        final AtomicInteger toRefill = new AtomicInteger(); // Applied, not given back yet
+
+        Account(int clientId) {
+            this.clientId = clientId;
+        }
+    }
+
+    // Accounts of the clients (replaced as a whole when one is added/removed, few clients)
+    private volatile Account[] mAccounts = new Account[0];
+
+    // Counters
+    private final AtomicLong mNOverBudget = new AtomicLong(); // Samples received without credit
+    private final AtomicLong mNDropEvents = new AtomicLong(); // Times drop-oldest kicked in
+    private final AtomicLong mNDropped = new AtomicLong(); // Samples dropped
+    private final AtomicLong mNRefills = new AtomicLong(); // CREDIT memos sent
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Get the instance
+     * @return Singleton instance
+     */
+    public static FlowControl get() {
+        return self;
+    }
+
+    /**
+     * Get the initial grant for a (re)connected client (its in-flight count starts over, other clients' don't)
+     * @param clientId Client id (> 0)
+     * @return CONFIG,CREDIT,budget,budget
+     */
+    public synchronized Memo grant(int clientId) {
+        final Account[] accounts = mAccounts;
+        final Account[] newAccounts = new Account[accounts.length + 1];
+        int n = 0;
+        for (Account account : accounts) {
+            if (account.clientId != clientId) newAccounts[n++] = account;
+        }
+        newAccounts[n++] = new Account(clientId);
+        mAccounts = Arrays.copyOf(newAccounts, n);
+
+        return new Memo(CONFIG, CREDIT, mBudget, mBudget);
+    }
+
+    /**
+     * Forget a client's credits (disconnected)
+     * @param clientId Client id
+     */
+    public synchronized void close(int clientId) {
+        final Account[] accounts = mAccounts;
+        final Account[] newAccounts = new Account[accounts.length];
+        int n = 0;
+        for (Account account : accounts) {
+            if (account.clientId != clientId) newAccounts[n++] = account;
+        }
+        if (n < accounts.length) mAccounts = Arrays.copyOf(newAccounts, n);
+    }
+
+    /**
+     * Samples were received (from any thread, e.g. a SCROLL_BATCH)
+     * @param clientId Id of the client they came from (no account -> not counted)
+     * @param nSamples Number of samples
+     */
+    public void received(int clientId, int nSamples) {
+        final Account account = findAccount(clientId);
+        if (account == null) return;
+
+        final int inFlight = account.inFlight.addAndGet(nSamples);
+        if (inFlight > mBudget) mNOverBudget.addAndGet(Math.min(nSamples, inFlight - mBudget));
+    }
+
+    /**
+     * Samples were applied (or dropped) -> give the credits back to the client once a quarter of the budget is
+     * collected (only to that client, not numbered: not replayed on RESUME)
+     * @param clientId Id of the client they came from (no account -> not counted)
+     * @param nSamples Number of samples
+     */
+    public void applied(int clientId, int nSamples) {
+        if (nSamples <= 0) return;
+        final Account account = findAccount(clientId);
+        if (account == null) return;
+
+        account.inFlight.addAndGet(-nSamples);
+        if (account.toRefill.addAndGet(nSamples) >= Math.max(1, mBudget / 4)) {
+            final int nCredits = account.toRefill.getAndSet(0);
+            if (nCredits > 0) {
+                Server.get().send(clientId, new Memo(CONFIG, CREDIT, nCredits, mBudget));
+                mNRefills.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Get the account of a client (no allocation, called per sample)
+     * @param clientId Client id
+     * @return Account (null if none)
+     */
+    private Account findAccount(int clientId) {
+        if (clientId == 0) return null;
+
+        final Account[] accounts = mAccounts;
+        for (Account account : accounts) {
+            if (account.clientId == clientId) return account;
+        }
+
+        return null;
+    }
+
+    /**
+     * Should the pending samples be dropped (before adding a new one)?
+     * @param nPending Number of pending samples
+     * @return True if the policy is drop-oldest and the threshold is reached
+     */
+    public boolean toDrop(int nPending) {
+        return mPolicy == POLICY.DROP_OLDEST && nPending >= mDropThreshold;
+    }
+
+    /**
+     * Pending samples were dropped as samples (call applied() too, outside any lock)
+     * @param nSamples Number of samples
+     */
+    public void dropped(int nSamples) {
+        final String TAG = NAME + "dropped";
+
+        mNDropEvents.incrementAndGet();
+        mNDropped.addAndGet(nSamples);
+        Logs.d(TAG, "Backpressure, dropped", nSamples);
+    }
+
+    public void setBudget(int budget) {
+        mBudget = budget;
+    }
+
+    public void setDropThreshold(int dropThreshold) {
+        mDropThreshold = dropThreshold;
+    }
+
+    public void setPolicy(POLICY policy) {
+        mPolicy = policy;
+    }
+
+    /**
+     * Get the samples in flight (all clients)
+     * @return Number of samples
+     */
+    public int getInFlight() {
+        int result = 0;
+        for (Account account : mAccounts) result += account.inFlight.get();
+
+        return result;
+    }
+
+    public long getNDropEvents() {
+        return mNDropEvents.get();
+    }
+
+    public long getNDropped() {
+        return mNDropped.get();
+    }
+
+    public long getNOverBudget() {
+        return mNOverBudget.get();
+    }
+
+    /**
+     * Get the flow control stats
+     * @return String (settings and counters)
+     */
+    public String getStats() {
+        return String.format("budget: %d | in flight: %d | over budget: %d | drops: %d (%d samples) | refills: %d | %s @ %d",
+                mBudget, getInFlight(), mNOverBudget.get(), mNDropEvents.get(), mNDropped.get(), mNRefills.get(),
+                mPolicy, mDropThreshold);
+    }
+}
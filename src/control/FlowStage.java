@@ -0,0 +1,102 @@
+package control;
+
+import tools.Logs;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.Function;
+
+/**
+ * One stage of a java.util.concurrent.Flow pipeline: takes items from upstream, applies a function, publishes
+ * the results downstream
+ * Demand is bounded: at most the window is requested from upstream, half of it is requested again once
+ * processed (so a slow stage fills its upstream buffer instead of growing without bound)
+ * The function runs on the upstream publisher's executor, the downstream subscribers on this stage's executor.
+ * Publishing blocks while a downstream buffer is full (the backpressure goes up the chain)
+ * A null result is not published (filter, or a last stage with no subscribers)
+ * @param <T> Input
+ * @param <R> Output
+ */
+public class FlowStage<T, R> extends SubmissionPublisher<R> implements Flow.Processor<T, R> {
+    private final static String NAME = "FlowStage/";
+    // -------------------------------------------------------------------------------------------
+    private final String mName;
+    private final Function<? super T, ? extends R> mFunction;
+    private final int mWindow;
+
+    private Flow.Subscription mSubscription;
+    private int mUntilRequest; // Items left before requesting more (upstream's thread)
+
+    // Stats (written on upstream's thread)
+    private volatile long mNItems;
+    private volatile long mNErrors;
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor
+     * @param name Name (for the logs and stats)
+     * @param executor Executor of the downstream subscribers
+     * @param window Items requested from upstream at once (and the downstream buffer size)
+     * @param function Function (null result -> nothing published)
+     */
+    public FlowStage(String name, Executor executor, int window, Function<? super T, ? extends R> function) {
+        super(executor, window);
+        mName = name;
+        mFunction = function;
+        mWindow = Math.max(2, window);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        mSubscription = subscription;
+        mUntilRequest = mWindow;
+        subscription.request(mWindow);
+    }
+
+    @Override
+    public void onNext(T item) {
+        final String TAG = NAME + "onNext";
+
+        R result = null;
+        try {
+            result = mFunction.apply(item);
+        } catch (RuntimeException e) { // One bad item doesn't end the stream
+            mNErrors++;
+            Logs.d(TAG, mName, e.toString());
+        }
+        if (result != null) submit(result); // Blocks while a downstream buffer is full
+        mNItems++;
+
+        if (--mUntilRequest <= mWindow / 2) { // Replenish the demand
+            mSubscription.request(mWindow - mUntilRequest);
+            mUntilRequest = mWindow;
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        final String TAG = NAME + "onError";
+        Logs.d(TAG, mName, throwable.toString());
+        closeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        close();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Get the stage stats
+     * @return String (items, errors, max items waiting downstream)
+     */
+    public String getStats() {
+        return String.format("%s | items: %d | errors: %d | downstream lag: %d",
+                mName, mNItems, mNErrors, estimateMaximumLag());
+    }
+}
@@ -0,0 +1,99 @@
+package control;
+
+import tools.LatencyHistogram;
+
+import javax.swing.*;
+
+/**
+ * Display frame clock on the EDT (a coalescing Swing Timer) with frame timing stats
+ * Runs only while there's work: started from any thread, stopped by the frame task when idle
+ * Stats (only changed and read on the EDT): interval between frames, time spent in the frame task, late frames
+ */
+public class FrameClock {
+    private final static String NAME = "FrameClock/";
+    // -------------------------------------------------------------------------------------------
+    private static final double LATE_FACTOR = 1.5; // A frame later than this many periods is late
+
+    private final Timer mTimer;
+    private final long mPeriodNs;
+
+    // Stats (EDT)
+    private long mLastFrameNs; // 0 -> first frame after a start
+    private long mNFrames;
+    private long mNLate;
+    private final LatencyHistogram mIntervalHist = new LatencyHistogram(); // us
+    private final LatencyHistogram mWorkHist = new LatencyHistogram(); // us
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor
+     * @param periodMs Frame period (ms)
+     * @param frameTask Task run on each frame (on the EDT)
+     */
+    public FrameClock(int periodMs, Runnable frameTask) {
+        mPeriodNs = periodMs * 1_000_000L;
+        mTimer = new Timer(periodMs, e -> onFrame(frameTask));
+        mTimer.setInitialDelay(0); // The first frame after idle is right away
+        mTimer.setCoalesce(true); // Late frames are merged, not queued
+    }
+
+    /**
+     * Start the frames (from any thread, no-op if running)
+     */
+    public void start() {
+        if (!mTimer.isRunning()) mTimer.start(); // Timer is thread-safe
+    }
+
+    /**
+     * Stop the frames (on the EDT, e.g. from the frame task when there's nothing to do)
+     */
+    public void stop() {
+        mTimer.stop();
+        mLastFrameNs = 0; // The idle time is not an interval
+    }
+
+    public boolean isRunning() {
+        return mTimer.isRunning();
+    }
+
+    /**
+     * Run the frame task and record the timing
+     * @param frameTask Frame task
+     */
+    private void onFrame(Runnable frameTask) {
+        final long stNs = System.nanoTime();
+        if (mLastFrameNs != 0) {
+            final long intervalNs = stNs - mLastFrameNs;
+            mIntervalHist.record(intervalNs / 1000);
+            if (intervalNs > LATE_FACTOR * mPeriodNs) mNLate++;
+        }
+        mLastFrameNs = stNs;
+
+        frameTask.run();
+
+        if (mTimer.isRunning()) { // Idle frames (stopped in the task) are not counted
+            mNFrames++;
+            mWorkHist.record((System.nanoTime() - stNs) / 1000);
+        }
+    }
+
+    /**
+     * Reset the stats (EDT)
+     */
+    public void resetStats() {
+        mNFrames = 0;
+        mNLate = 0;
+        mIntervalHist.reset();
+        mWorkHist.reset();
+    }
+
+    /**
+     * Get the frame timing stats (EDT)
+     * @return String (frames, late frames, interval and work percentiles in us)
+     */
+    public String getStats() {
+        return String.format("frames: %d | late: %d | interval %s | work %s",
+                mNFrames, mNLate, mIntervalHist, mWorkHist);
+    }
+}
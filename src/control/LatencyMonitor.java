@@ -0,0 +1,132 @@
+package control;
+
+import data.Memo;
+import experiment.Experiment.TECHNIQUE;
+import tools.LatencyHistogram;
+import tools.Logs;
+import tools.Utils;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Latency histograms of the input path, per technique and stage
+ * (socket arrival -> Controller dispatch -> EDT -> after setViewPosition)
+ * Record and dump only on the EDT
+ */
+public class LatencyMonitor {
+    private final static String NAME = "LatencyMonitor/";
+    // -------------------------------------------------------------------------------------------
+    private static final LatencyMonitor self = new LatencyMonitor(); // Singleton (eager: used from several threads)
+
+    public enum STAGE {
+        NETWORK,    // Moose send -> socket arrival (only if the Moose sends timestamps)
+        RECEIVE,    // Socket arrival -> Controller dispatch
+        QUEUE,      // Controller dispatch -> EDT
+        APPLY,      // EDT -> after setViewPosition
+        TOTAL       // Socket arrival -> after setViewPosition
+    }
+
+    private final Map<TECHNIQUE, LatencyHistogram[]> mHistograms = new EnumMap<>(TECHNIQUE.class);
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Get the instance
+     * @return Singleton instance
+     */
+    public static LatencyMonitor get() {
+        return self;
+    }
+
+    /**
+     * Constructor
+     */
+    private LatencyMonitor() {
+        for (TECHNIQUE tech : TECHNIQUE.values()) {
+            final LatencyHistogram[] stageHists = new LatencyHistogram[STAGE.values().length];
+            for (int i = 0; i < stageHists.length; i++) stageHists[i] = new LatencyHistogram();
+            mHistograms.put(tech, stageHists);
+        }
+    }
+
+    /**
+     * Record the stages of one sample
+     * @param tech Technique
+     * @param arrivalNs Socket arrival (nanoTime)
+     * @param dispatchNs Controller dispatch (nanoTime)
+     * @param edtNs Start of the EDT task (nanoTime)
+     * @param appliedNs After setViewPosition (nanoTime)
+     * @param networkMs Moose send -> arrival (ms), -1 if not known
+     */
+    public void record(TECHNIQUE tech, long arrivalNs, long dispatchNs, long edtNs, long appliedNs, long networkMs) {
+        final LatencyHistogram[] stageHists = mHistograms.get(tech);
+
+        if (networkMs >= 0) stageHists[STAGE.NETWORK.ordinal()].record(networkMs * 1000);
+        stageHists[STAGE.RECEIVE.ordinal()].record((dispatchNs - arrivalNs) / 1000);
+        stageHists[STAGE.QUEUE.ordinal()].record((edtNs - dispatchNs) / 1000);
+        stageHists[STAGE.APPLY.ordinal()].record((appliedNs - edtNs) / 1000);
+        stageHists[STAGE.TOTAL.ordinal()].record((appliedNs - arrivalNs) / 1000);
+    }
+
+    /**
+     * Get the network delay of a memo (without clock sync, includes the offset between the clocks)
+     * @param memo Memo
+     * @return Delay in ms (-1 if the Moose didn't send a timestamp)
+     */
+    public static long networkDelay(Memo memo) {
+        return networkDelay(memo.getTimestamp(), memo.getSenderOffsetMs());
+    }
+
+    /**
+     * Get the network delay of a sample (e.g. one sample of a SCROLL_BATCH)
+     * @param sentMs Sender's time of the sample (ms, 0 = not known)
+     * @param offsetMs Sender's clock - desktop's clock (ms, NaN = not synced)
+     * @return Delay in ms (-1 if the time is not known)
+     */
+    public static long networkDelay(double sentMs, double offsetMs) {
+        if (sentMs == 0) return -1;
+
+        // Correct the Moose's clock if synced
+        final long sentTime = Math.round(Double.isNaN(offsetMs) ? sentMs : sentMs - offsetMs);
+        return Math.max(0, Utils.nowInMillis() - sentTime);
+    }
+
+    /**
+     * Get a histogram
+     * @param tech Technique
+     * @param stage Stage
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getHistogram(TECHNIQUE tech, STAGE stage) {
+        return mHistograms.get(tech)[stage.ordinal()];
+    }
+
+    /**
+     * Log the percentile summary of all non-empty histograms, then reset them (end of each block)
+     * @param genInfo GeneralInfo
+     */
+    public void logAndReset(Logger.GeneralInfo genInfo) {
+        final String TAG = NAME + "logAndReset";
+
+        final Logger.LatencyInfo latencyInfo = new Logger.LatencyInfo();
+        for (TECHNIQUE tech : TECHNIQUE.values()) {
+            for (STAGE stage : STAGE.values()) {
+                final LatencyHistogram hist = getHistogram(tech, stage);
+                if (hist.getCount() == 0) continue;
+
+                latencyInfo.tech = tech;
+                latencyInfo.stage = stage;
+                latencyInfo.count = hist.getCount();
+                latencyInfo.p50 = hist.getPercentile(50);
+                latencyInfo.p99 = hist.getPercentile(99);
+                latencyInfo.p999 = hist.getPercentile(99.9);
+                latencyInfo.max = hist.getMax();
+                Logger.get().logLatencyInfo(genInfo, latencyInfo);
+
+                Logs.d(TAG, tech, stage, hist);
+                hist.reset();
+            }
+        }
+    }
+}
@@ -15,6 +15,12 @@ import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static data.Consts.STRINGS.*;
 import static experiment.Experiment.*;
@@ -47,9 +53,51 @@ public class Logger {
     private Path mMoveFilePath;
     private PrintWriter mMoveFilePW;
 
+    private Path mSamplesFilePath;
+    private PrintWriter mSamplesFilePW;
+
+    private Path mLatencyFilePath;
+    private PrintWriter mLatencyFilePW;
+
+    private Path mSyncFilePath;
+    private PrintWriter mSyncFilePW;
+
+    private Path mHealthFilePath;
+    private PrintWriter mHealthFilePW;
+
+    private Path mPredictFilePath;
+    private PrintWriter mPredictFilePW;
+
     private long mHomingStTime;
+
+    // Writing (lines are formatted by the callers, written and flushed on the writer thread)
+    private static final int LOG_BUFFER = 8192; // Lines waiting to be written
+    private static final int LOG_WINDOW = 256; // Lines requested by the writer at once
+    private static final long LOG_OFFER_TIMEOUT_MS = 5; // Full buffer: wait this long, then drop the line (diagnostics)
+    private static final long LOG_DRAIN_TIMEOUT_MS = 3000;
+    private static final long LOG_DROP_REPORT = 1000; // Dropped lines are reported on the first and every this many
+
+    private final ExecutorService mLogExecutor = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "Logger-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private SubmissionPublisher<LogLine> mLogPublisher;
+    private FlowStage<LogLine, LogLine> mLogStage;
+    private final AtomicLong mNDroppedLines = new AtomicLong(); // Diagnostic lines dropped (SAMPLES, HEALTH, PREDICT)
     // -------------------------------------------------------------------------------------------
 
+    // One line of a log file
+    private static class LogLine {
+        final PrintWriter pw;
+        final String line;
+
+        LogLine(PrintWriter pw, String line) {
+            this.pw = pw;
+            this.line = line;
+        }
+    }
+
     /**
      * Get the instance
      * @return Singleton instance
@@ -75,6 +123,100 @@ public class Logger {
                 ioe.printStackTrace();
             }
         }
+
+        startWriter();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drainWriter)); // Buffered lines at System.exit
+    }
+
+    /**
+     * Start the writer stage (lines -> files)
+     */
+    private synchronized void startWriter() {
+        mLogPublisher = new SubmissionPublisher<>(mLogExecutor, LOG_BUFFER);
+        mLogStage = new FlowStage<>("log", mLogExecutor, LOG_WINDOW, logLine -> {
+            logLine.pw.println(logLine.line);
+            logLine.pw.flush();
+            return null; // Last stage
+        });
+        mLogPublisher.subscribe(mLogStage);
+    }
+
+    /**
+     * Write the buffered lines and stop the writer stage (then a new one is started)
+     */
+    private synchronized void drainWriter() {
+        final String TAG = NAME + "drainWriter";
+
+        mLogPublisher.close(); // The stage writes what's buffered, then completes
+        final long deadline = System.currentTimeMillis() + LOG_DRAIN_TIMEOUT_MS;
+        while (!mLogStage.isClosed() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        if (mNDroppedLines.get() > 0) Logs.d(TAG, "Dropped lines", mNDroppedLines.get());
+
+        startWriter();
+    }
+
+    /**
+     * Queue a line for a log file (the caller doesn't wait for the disk)
+     * Experiment data waits for room if the writer is far behind, it's never dropped
+     * @param pw PrintWriter of the file
+     * @param line Line
+     */
+    private void write(PrintWriter pw, String line) {
+        write(pw, line, false);
+    }
+
+    /**
+     * Queue a line for a log file
+     * @param pw PrintWriter of the file
+     * @param line Line
+     * @param droppable Drop the line (and count it) if the writer is too far behind? (high-rate diagnostics)
+     */
+    private void write(PrintWriter pw, String line, boolean droppable) {
+        final String TAG = NAME + "write";
+        Objects.requireNonNull(pw); // Not opened (handled by the callers)
+
+        final LogLine logLine = new LogLine(pw, line);
+        while (true) {
+            final SubmissionPublisher<LogLine> publisher;
+            synchronized (this) {
+                publisher = mLogPublisher;
+            }
+
+            try {
+                if (droppable) {
+                    publisher.offer(logLine, LOG_OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS, (subscriber, dropped) -> {
+                        final long nDropped = mNDroppedLines.incrementAndGet();
+                        if (nDropped == 1 || nDropped % LOG_DROP_REPORT == 0) Logs.d(TAG, "Dropped lines", nDropped);
+                        return false;
+                    });
+                } else {
+                    publisher.submit(logLine); // Waits while the buffer is full
+                }
+                return;
+            } catch (IllegalStateException e) {
+                // Closed by drainWriter in the meantime -> to the new writer
+            }
+        }
+    }
+
+    /**
+     * Get the writer stats
+     * @return String (lines written, lines waiting, dropped)
+     */
+    public String getWriterStats() {
+        final FlowStage<LogLine, LogLine> stage;
+        final SubmissionPublisher<LogLine> publisher;
+        synchronized (this) {
+            stage = mLogStage;
+            publisher = mLogPublisher;
+        }
+        return stage.getStats() + " | waiting: " + publisher.estimateMaximumLag() + " | dropped: " + mNDroppedLines.get();
     }
 
     /**
@@ -95,6 +237,11 @@ public class Logger {
         mTimesFilePath =    mPcLogDirectory.resolve(mPcExpLogId + "_" + "TIMES.txt");
         mScrollFilePath =   mPcLogDirectory.resolve(mPcExpLogId + "_" + "SCROLL.txt");
         mMoveFilePath =     mPcLogDirectory.resolve(mPcExpLogId + "_" + "MOVE.txt");
+        mSamplesFilePath =  mPcLogDirectory.resolve(mPcExpLogId + "_" + "SAMPLES.txt");
+        mLatencyFilePath =  mPcLogDirectory.resolve(mPcExpLogId + "_" + "LATENCY.txt");
+        mSyncFilePath =     mPcLogDirectory.resolve(mPcExpLogId + "_" + "SYNC.txt");
+        mHealthFilePath =   mPcLogDirectory.resolve(mPcExpLogId + "_" + "HEALTH.txt");
+        mPredictFilePath =  mPcLogDirectory.resolve(mPcExpLogId + "_" + "PREDICT.txt");
 
         if (!Files.isDirectory(mPcLogDirectory)) { // New logging
             createLogFiles();
@@ -105,6 +252,15 @@ public class Logger {
 
     }
 
+    /**
+     * Get the path of the session capture file (see Server.startCapture)
+     * @return Path (null if no participant)
+     */
+    public Path getCapturePath() {
+        if (mPcLogDirectory == null) return null;
+        return mPcLogDirectory.resolve(mPcExpLogId + "_" + "CAPTURE.bin");
+    }
+
     /**
      * Send the initial log info to the Moose
      */
@@ -140,6 +296,26 @@ public class Logger {
             mMoveFilePW.println(GeneralInfo.getLogHeader() + SP + MoveInfo.getLogHeader());
             mMoveFilePW.flush();
 
+            mSamplesFilePW = new PrintWriter(mSamplesFilePath.toFile());
+            mSamplesFilePW.println(GeneralInfo.getLogHeader() + SP + SampleInfo.getLogHeader());
+            mSamplesFilePW.flush();
+
+            mLatencyFilePW = new PrintWriter(mLatencyFilePath.toFile());
+            mLatencyFilePW.println(GeneralInfo.getLogHeader() + SP + LatencyInfo.getLogHeader());
+            mLatencyFilePW.flush();
+
+            mSyncFilePW = new PrintWriter(mSyncFilePath.toFile());
+            mSyncFilePW.println(SyncInfo.getLogHeader());
+            mSyncFilePW.flush();
+
+            mHealthFilePW = new PrintWriter(mHealthFilePath.toFile());
+            mHealthFilePW.println(HealthInfo.getLogHeader());
+            mHealthFilePW.flush();
+
+            mPredictFilePW = new PrintWriter(mPredictFilePath.toFile());
+            mPredictFilePW.println(GeneralInfo.getLogHeader() + SP + PredictInfo.getLogHeader());
+            mPredictFilePW.flush();
+
         } catch (IOException ioe) {
             ExperimentFrame.get().showMessage("Problem in creating log dir/files");
             ioe.printStackTrace();
@@ -156,6 +332,11 @@ public class Logger {
             mTimesFilePW = new PrintWriter(new FileWriter(mTimesFilePath.toString(), true));
             mScrollFilePW = new PrintWriter(new FileWriter(mScrollFilePath.toString(), true));
             mMoveFilePW = new PrintWriter(new FileWriter(mMoveFilePath.toString(), true));
+            mSamplesFilePW = new PrintWriter(new FileWriter(mSamplesFilePath.toString(), true));
+            mLatencyFilePW = new PrintWriter(new FileWriter(mLatencyFilePath.toString(), true));
+            mSyncFilePW = new PrintWriter(new FileWriter(mSyncFilePath.toString(), true));
+            mHealthFilePW = new PrintWriter(new FileWriter(mHealthFilePath.toString(), true));
+            mPredictFilePW = new PrintWriter(new FileWriter(mPredictFilePath.toString(), true));
 
         } catch (IOException e) {
             ExperimentFrame.get().showMessage("Problem in opening log files");
@@ -175,8 +356,7 @@ public class Logger {
             // Open only if not opened before
             if (mTrialsFilePW == null) openLogFiles();
 
-            mTrialsFilePW.println(genInfo + SP + trialInfo);
-            mTrialsFilePW.flush();
+            write(mTrialsFilePW, genInfo + SP + trialInfo);
 
         } catch (NullPointerException e) {
             e.printStackTrace();
@@ -196,8 +376,7 @@ public class Logger {
             // Open only if not opened before
             if (mInstantFilePW == null) openLogFiles();
 
-            mInstantFilePW.println(genInfo + SP + instInfo);
-            mInstantFilePW.flush();
+            write(mInstantFilePW, genInfo + SP + instInfo);
 
         } catch (NullPointerException e) {
             Main.showDialog("Problem in logging instant!");
@@ -216,8 +395,7 @@ public class Logger {
             // Open only if not opened before
             if (mTimesFilePW == null) openLogFiles();
 
-            mTimesFilePW.println(genInfo + SP + timeInfo);
-            mTimesFilePW.flush();
+            write(mTimesFilePW, genInfo + SP + timeInfo);
 
         } catch (NullPointerException e) {
             Main.showDialog("Problem in logging time!");
@@ -236,8 +414,7 @@ public class Logger {
             // Open only if not opened before
             if (mScrollFilePW == null) openLogFiles();
 
-            mScrollFilePW.println(genInfo + SP + scrollInfo);
-            mScrollFilePW.flush();
+            write(mScrollFilePW, genInfo + SP + scrollInfo);
 
         } catch (NullPointerException e) {
             Main.showDialog("Problem in logging scroll!");
@@ -256,23 +433,125 @@ public class Logger {
             // Open only if not opened before
             if (mMoveFilePW == null) openLogFiles();
 
-            mMoveFilePW.println(genInfo + SP + moveInfo);
-            mMoveFilePW.flush();
+            write(mMoveFilePW, genInfo + SP + moveInfo);
 
         } catch (NullPointerException e) {
             Main.showDialog("Problem in logging scroll!");
         }
     }
 
+    /**
+     * Log SampleInfo (every raw sample received from the Moose)
+     * @param genInfo GeneralInfo
+     * @param sampleInfo SampleInfo
+     */
+    public void logSampleInfo(GeneralInfo genInfo, SampleInfo sampleInfo) {
+        final String TAG = NAME + "logSampleInfo";
+
+        try {
+            // Open only if not opened before
+            if (mSamplesFilePW == null) openLogFiles();
+
+            write(mSamplesFilePW, genInfo + SP + sampleInfo, true);
+
+        } catch (NullPointerException e) {
+            Main.showDialog("Problem in logging sample!");
+        }
+    }
+
+    /**
+     * Log LatencyInfo
+     * @param genInfo GeneralInfo
+     * @param latencyInfo LatencyInfo
+     */
+    public void logLatencyInfo(GeneralInfo genInfo, LatencyInfo latencyInfo) {
+        final String TAG = NAME + "logLatencyInfo";
+
+        try {
+            // Open only if not opened before
+            if (mLatencyFilePW == null) openLogFiles();
+
+            write(mLatencyFilePW, genInfo + SP + latencyInfo);
+
+        } catch (NullPointerException e) {
+            Main.showDialog("Problem in logging latency!");
+        }
+    }
+
+    /**
+     * Log SyncInfo (not tied to trials, clocks are synced all the time)
+     * @param syncInfo SyncInfo
+     */
+    public void logSyncInfo(SyncInfo syncInfo) {
+        final String TAG = NAME + "logSyncInfo";
+
+        if (mPcLogDirectory == null) return; // No participant (e.g. tools)
+
+        try {
+            // Open only if not opened before
+            if (mSyncFilePW == null) openLogFiles();
+
+            write(mSyncFilePW, syncInfo.toString());
+
+        } catch (NullPointerException e) {
+            Main.showDialog("Problem in logging sync!");
+        }
+    }
+
+    /**
+     * Log HealthInfo (periodically and when the state of a connection changes)
+     * @param healthInfo HealthInfo
+     */
+    public void logHealthInfo(HealthInfo healthInfo) {
+        final String TAG = NAME + "logHealthInfo";
+
+        if (mPcLogDirectory == null) return; // No participant (e.g. tools)
+
+        try {
+            // Open only if not opened before
+            if (mHealthFilePW == null) openLogFiles();
+
+            write(mHealthFilePW, healthInfo.toString(), true);
+
+        } catch (NullPointerException e) {
+            Main.showDialog("Problem in logging health!");
+        }
+    }
+
+    /**
+     * Log PredictInfo (one row per predicted frame)
+     * @param genInfo GeneralInfo
+     * @param predictInfo PredictInfo
+     */
+    public void logPredictInfo(GeneralInfo genInfo, PredictInfo predictInfo) {
+        final String TAG = NAME + "logPredictInfo";
+
+        try {
+            // Open only if not opened before
+            if (mPredictFilePW == null) openLogFiles();
+
+            write(mPredictFilePW, genInfo + SP + predictInfo, true);
+
+        } catch (NullPointerException e) {
+            Main.showDialog("Problem in logging prediction!");
+        }
+    }
+
     /**
      * Close all log files
      */
     public void closeLogs() {
+        drainWriter(); // Lines still buffered go to the files first
         if (mTrialsFilePW != null) mTrialsFilePW.close();
         if (mInstantFilePW != null) mInstantFilePW.close();
         if (mTimesFilePW != null) mTimesFilePW.close();
         if (mScrollFilePW != null) mScrollFilePW.close();
         if (mMoveFilePW != null) mMoveFilePW.close();
+        if (mSamplesFilePW != null) mSamplesFilePW.close();
+        if (mLatencyFilePW != null) mLatencyFilePW.close();
+        if (mSyncFilePW != null) mSyncFilePW.close();
+        if (mHealthFilePW != null) mHealthFilePW.close();
+        if (mPredictFilePW != null) mPredictFilePW.close();
     }
 
     /**
@@ -475,7 +754,159 @@ public class Logger {
         }
     }
 
+    // Raw sample info (as received, before merging into frames)
+    public static class SampleInfo {
+        public String mode;
+        public double value1; // mm (SCROLL) or mm/s (FLING)
+        public double value2;
+        public long sentMoment; // Moose's time of the sample in ms (desktop's clock if synced, 0 if not sent)
+        public long moment; // in ms
+
+        public static String getLogHeader() {
+            return "mode" + SP +
+                    "value1" + SP +
+                    "value2" + SP +
+                    "sent_moment" + SP +
+                    "moment";
+        }
 
+        @Override
+        public String toString() {
+            return mode + SP +
+                    value1 + SP +
+                    value2 + SP +
+                    sentMoment + SP +
+                    moment;
+        }
+    }
 
+    // Predicted vs. actual position of one frame (px since the start of the gesture)
+    public static class PredictInfo {
+        public TECHNIQUE tech;
+        public double actualVt; // Sum of the received samples
+        public double actualHz;
+        public double predictedVt; // Shown
+        public double predictedHz;
+        public long sinceSample; // Time since the last received sample (ms)
+        public long moment; // in ms
 
+        public static String getLogHeader() {
+            return "predict_technique" + SP +
+                    "actual_vt" + SP +
+                    "actual_hz" + SP +
+                    "predicted_vt" + SP +
+                    "predicted_hz" + SP +
+                    "since_sample" + SP +
+                    "moment";
+        }
+
+        @Override
+        public String toString() {
+            return tech + SP +
+                    actualVt + SP +
+                    actualHz + SP +
+                    predictedVt + SP +
+                    predictedHz + SP +
+                    sinceSample + SP +
+                    moment;
+        }
+    }
+
+    // Latency summary of one stage (per block), all in us
+    public static class LatencyInfo {
+        public TECHNIQUE tech;
+        public LatencyMonitor.STAGE stage;
+        public long count;
+        public long p50;
+        public long p99;
+        public long p999;
+        public long max;
+
+        public static String getLogHeader() {
+            return "latency_technique" + SP +
+                    "stage" + SP +
+                    "count" + SP +
+                    "p50" + SP +
+                    "p99" + SP +
+                    "p99_9" + SP +
+                    "max";
+        }
+
+        @Override
+        public String toString() {
+            return tech + SP +
+                    stage + SP +
+                    count + SP +
+                    p50 + SP +
+                    p99 + SP +
+                    p999 + SP +
+                    max;
+        }
+    }
+
+    // Clock sync between the Moose and the desktop (Moose time = desktop time + offset)
+    public static class SyncInfo {
+        public int clientId;
+        public long rtt; // ms
+        public double offset; // ms
+        public double driftPpm;
+        public long moment; // in ms (desktop)
+
+        public static String getLogHeader() {
+            return "client_id" + SP +
+                    "rtt" + SP +
+                    "offset" + SP +
+                    "drift_ppm" + SP +
+                    "moment";
+        }
+
+        @Override
+        public String toString() {
+            return clientId + SP +
+                    rtt + SP +
+                    offset + SP +
+                    driftPpm + SP +
+                    moment;
+        }
+    }
+
+    public static class HealthInfo {
+        public int clientId;
+        public ConnectionHealth.STATE state;
+        public double srtt; // ms
+        public double jitter; // ms
+        public int keepAlive; // ms
+        public long maxScrollGap; // ms (inside gestures, since the last row)
+        public long nStalls;
+        public int blockNum; // Current block and trial (to flag the trials on a degraded link)
+        public int trialNum;
+        public long moment; // in ms (desktop)
+
+        public static String getLogHeader() {
+            return "client_id" + SP +
+                    "state" + SP +
+                    "srtt" + SP +
+                    "jitter" + SP +
+                    "keep_alive" + SP +
+                    "max_scroll_gap" + SP +
+                    "n_stalls" + SP +
+                    "block_num" + SP +
+                    "trial_num" + SP +
+                    "moment";
+        }
+
+        @Override
+        public String toString() {
+            return clientId + SP +
+                    state + SP +
+                    srtt + SP +
+                    jitter + SP +
+                    keepAlive + SP +
+                    maxScrollGap + SP +
+                    nStalls + SP +
+                    blockNum + SP +
+                    trialNum + SP +
+                    moment;
+        }
+    }
 }
@@ -0,0 +1,374 @@
+package control;
+
+import data.Memo;
+import experiment.Experiment.TECHNIQUE;
+import gui.ExperimentFrame;
+import tools.Logs;
+
+import java.util.Arrays;
+
+/**
+ * Merges the scroll amounts that arrive within one display frame and applies them in one EDT task
+ * Amounts are in fractional pixels: the whole pixels are applied each frame, the rest is carried to the next
+ * (so slow movements add up instead of rounding to zero)
+ * The FrameClock runs only while there are amounts to apply (or a frame is requested)
+ * Frame tasks (the ScrollPredictor, the FlickEngine's glide) add their own amounts at the start of each frame,
+ * so everything that moves the view runs on this one clock
+ */
+public class ScrollCoalescer {
+    private final static String NAME = "ScrollCoalescer/";
+    // -------------------------------------------------------------------------------------------
+    private static final ScrollCoalescer self = new ScrollCoalescer(); // Singleton (eager: used from several threads)
+
+    public static final int FRAME_MS = 16; // ~60 Hz
+    private static final int MAX_MERGED_BIN = 64; // Last bin of the merged-count histogram (>= 64)
+    private static final int MAX_STAMPS = 1024; // Latency stamps kept per frame (the rest are not recorded)
+    private static final long REMAINDER_RESET_NS = 500_000_000L; // Sub-pixel rest is dropped after this long idle
+
+    private final FrameClock mFrameClock;
+    private volatile ScrollTarget mTarget = (vt, hz) -> ExperimentFrame.get().scroll(vt, hz);
+    private volatile Runnable[] mFrameTasks = new Runnable[0]; // Run before the merge of each frame (copy on write)
+
+    // Pending (guarded by this)
+    private double mPendingVt, mPendingHz; // px
+    private int mNPending;
+    private boolean mFrameRequested; // Run the next frame even with nothing pending (a frame task starts)
+
+    // Samples of the pending memos per client (guarded by this, swapped with the EDT's copy each frame)
+    private Credits mPendingCredits = new Credits();
+    private Credits mFrameCredits = new Credits();
+
+    // Latency stamps of the pending memos (guarded by this, swapped with the EDT's copy each frame)
+    private Stamps mPendingStamps = new Stamps();
+    private Stamps mFrameStamps = new Stamps();
+
+    // Sub-pixel rest (EDT)
+    private double mRemainderVt, mRemainderHz; // px
+    private long mLastAppliedNs;
+
+    // Stats (only changed on the EDT)
+    private long mNFrames;
+    private long mNMerged;
+    private int mLastMerged;
+    private int mMaxMerged;
+    private final long[] mMergedHist = new long[MAX_MERGED_BIN + 1]; // Number of frames per merged count
+
+    // -------------------------------------------------------------------------------------------
+
+    // Stamps of the memos merged in one frame
+    private static class Stamps {
+        final TECHNIQUE[] techs = new TECHNIQUE[MAX_STAMPS];
+        final long[] arrivalNs = new long[MAX_STAMPS];
+        final long[] dispatchNs = new long[MAX_STAMPS];
+        final long[] networkMs = new long[MAX_STAMPS];
+        int n;
+    }
+
+    // Samples (counted by the FlowControl) of the memos merged in one frame, per client
+    private static class Credits {
+        int[] clientIds = new int[4];
+        int[] counts = new int[4];
+        int n; // Clients
+        int nSamples; // All clients
+
+        /**
+         * Count one sample of a client
+         * @param clientId Client id
+         */
+        void add(int clientId) {
+            nSamples++;
+            for (int i = 0; i < n; i++) {
+                if (clientIds[i] == clientId) {
+                    counts[i]++;
+                    return;
+                }
+            }
+
+            if (n == clientIds.length) { // Only with more clients than ever before
+                clientIds = Arrays.copyOf(clientIds, 2 * n);
+                counts = Arrays.copyOf(counts, 2 * n);
+            }
+            clientIds[n] = clientId;
+            counts[n] = 1;
+            n++;
+        }
+
+        /**
+         * Give the credits back to each client (outside the lock), then empty
+         */
+        void giveBack() {
+            final FlowControl flowControl = FlowControl.get();
+            for (int i = 0; i < n; i++) flowControl.applied(clientIds[i], counts[i]);
+            n = 0;
+            nSamples = 0;
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Get the instance
+     * @return Singleton instance
+     */
+    public static ScrollCoalescer get() {
+        return self;
+    }
+
+    /**
+     * Constructor
+     */
+    private ScrollCoalescer() {
+        mFrameClock = new FrameClock(FRAME_MS, this::applyFrame);
+    }
+
+    /**
+     * Set where the amounts are applied (default: the ExperimentFrame)
+     * @param target ScrollTarget
+     */
+    public void setTarget(ScrollTarget target) {
+        mTarget = target;
+    }
+
+    /**
+     * Add a task run at the start of each frame, on the EDT (it submits to be part of the frame)
+     * @param frameTask Runnable (removed by the same reference)
+     */
+    public synchronized void addFrameTask(Runnable frameTask) {
+        for (Runnable task : mFrameTasks) {
+            if (task == frameTask) return;
+        }
+
+        final Runnable[] frameTasks = Arrays.copyOf(mFrameTasks, mFrameTasks.length + 1);
+        frameTasks[frameTasks.length - 1] = frameTask;
+        mFrameTasks = frameTasks;
+    }
+
+    /**
+     * Remove a frame task
+     * @param frameTask Runnable (as added)
+     */
+    public synchronized void removeFrameTask(Runnable frameTask) {
+        final Runnable[] frameTasks = new Runnable[mFrameTasks.length];
+        int n = 0;
+        for (Runnable task : mFrameTasks) {
+            if (task != frameTask) frameTasks[n++] = task;
+        }
+        mFrameTasks = Arrays.copyOf(frameTasks, n);
+    }
+
+    /**
+     * Start the frames even with nothing to apply yet (e.g. a frame task has started, from any thread)
+     * The clock stops again after a frame in which nothing was submitted
+     */
+    public synchronized void requestFrame() {
+        mFrameRequested = true;
+        mFrameClock.start();
+    }
+
+    /**
+     * Add a scroll amount (from any thread)
+     * @param vtScrollAmt Vertical scroll amount (px, can be fractional)
+     * @param hzScrollAmt Horizontal scroll amount (px, can be fractional)
+     */
+    public void submit(double vtScrollAmt, double hzScrollAmt) {
+        synchronized (this) {
+            mPendingVt += vtScrollAmt;
+            mPendingHz += hzScrollAmt;
+            mNPending++;
+
+            mFrameClock.start();
+        }
+    }
+
+    /**
+     * Add the scroll amount of a memo (from any thread)
+     * Its stamps are recorded in the LatencyMonitor when applied (the memo is not kept)
+     * @param vtScrollAmt Vertical scroll amount (px)
+     * @param hzScrollAmt Horizontal scroll amount (px)
+     * @param tech Technique
+     * @param memo Memo
+     */
+    public void submit(double vtScrollAmt, double hzScrollAmt, TECHNIQUE tech, Memo memo) {
+        submit(vtScrollAmt, hzScrollAmt, tech, memo.getSourceId(),
+                memo.getArrivalNs(), memo.getDispatchNs(), LatencyMonitor.networkDelay(memo));
+    }
+
+    /**
+     * Add the scroll amount of a sample (from any thread)
+     * Its stamps are recorded in the LatencyMonitor when applied
+     * If the FlowControl says so, the pending samples are dropped first (drop-oldest): their credits are given back
+     * and their stamps discarded, their merged amount is kept (deltas, the view must follow the finger)
+     * @param vtScrollAmt Vertical scroll amount (px)
+     * @param hzScrollAmt Horizontal scroll amount (px)
+     * @param tech Technique
+     * @param sourceId Id of the client of the sample (its credit goes back there, 0 = none)
+     * @param arrivalNs Socket arrival (nanoTime, 0 = not stamped)
+     * @param dispatchNs Controller dispatch (nanoTime)
+     * @param networkMs Network delay (ms, -1 if not known)
+     */
+    public void submit(double vtScrollAmt, double hzScrollAmt, TECHNIQUE tech, int sourceId,
+                       long arrivalNs, long dispatchNs, long networkMs) {
+        final FlowControl flowControl = FlowControl.get();
+
+        Credits dropped = null;
+        synchronized (this) {
+            if (flowControl.toDrop(mPendingCredits.nSamples)) {
+                dropped = mPendingCredits;
+                mPendingCredits = new Credits(); // Only on drops
+                mPendingStamps.n = 0;
+            }
+
+            addStamps(tech, arrivalNs, dispatchNs, networkMs);
+            mPendingCredits.add(sourceId);
+            submit(vtScrollAmt, hzScrollAmt);
+        }
+
+        if (dropped != null) {
+            flowControl.dropped(dropped.nSamples);
+            dropped.giveBack(); // Their credits are given back
+        }
+    }
+
+    /**
+     * Add a scroll amount with the stamps of a memo whose credit is already given back (from any thread)
+     * E.g. the first tick of a rate-based velocity: not a sample for the FlowControl
+     * @param vtScrollAmt Vertical scroll amount (px)
+     * @param hzScrollAmt Horizontal scroll amount (px)
+     * @param tech Technique
+     * @param arrivalNs Socket arrival (nanoTime, 0 = not stamped)
+     * @param dispatchNs Controller dispatch (nanoTime)
+     * @param networkMs Network delay (ms, -1 if not known)
+     */
+    public void submitStamped(double vtScrollAmt, double hzScrollAmt, TECHNIQUE tech,
+                              long arrivalNs, long dispatchNs, long networkMs) {
+        synchronized (this) {
+            addStamps(tech, arrivalNs, dispatchNs, networkMs);
+            submit(vtScrollAmt, hzScrollAmt);
+        }
+    }
+
+    /**
+     * Keep the stamps of a memo for the next frame (call with the lock)
+     * @param tech Technique
+     * @param arrivalNs Socket arrival (nanoTime, 0 = not stamped)
+     * @param dispatchNs Controller dispatch (nanoTime)
+     * @param networkMs Network delay (ms, -1 if not known)
+     */
+    private void addStamps(TECHNIQUE tech, long arrivalNs, long dispatchNs, long networkMs) {
+        final Stamps stamps = mPendingStamps;
+        if (stamps.n < MAX_STAMPS && arrivalNs != 0) {
+            stamps.techs[stamps.n] = tech;
+            stamps.arrivalNs[stamps.n] = arrivalNs;
+            stamps.dispatchNs[stamps.n] = dispatchNs;
+            stamps.networkMs[stamps.n] = networkMs;
+            stamps.n++;
+        }
+    }
+
+    /**
+     * Apply the merged amounts (on the EDT, once per frame)
+     */
+    private void applyFrame() {
+        final String TAG = NAME + "applyFrame";
+
+        final long edtNs = System.nanoTime();
+        synchronized (this) {
+            mFrameRequested = false; // Served by this frame (a request from now on is for the next one)
+        }
+        final Runnable[] frameTasks = mFrameTasks;
+        for (int i = 0; i < frameTasks.length; i++) frameTasks[i].run();
+
+        final double pendingVt, pendingHz;
+        final int nMerged;
+        final Stamps stamps;
+        final Credits credits;
+        synchronized (this) {
+            pendingVt = mPendingVt;
+            pendingHz = mPendingHz;
+            nMerged = mNPending;
+            mPendingVt = 0;
+            mPendingHz = 0;
+            mNPending = 0;
+
+            // Swap the stamps and credits
+            stamps = mPendingStamps;
+            mPendingStamps = mFrameStamps;
+            mFrameStamps = stamps;
+            credits = mPendingCredits;
+            mPendingCredits = mFrameCredits;
+            mFrameCredits = credits;
+
+            if (nMerged == 0) { // Nothing in this frame -> idle (unless requested since)
+                if (!mFrameRequested) mFrameClock.stop();
+                return;
+            }
+        }
+
+        // Whole pixels now, the rest later (not after a long pause, it may be another gesture)
+        if (edtNs - mLastAppliedNs > REMAINDER_RESET_NS) {
+            mRemainderVt = 0;
+            mRemainderHz = 0;
+        }
+        mLastAppliedNs = edtNs;
+
+        final double totalVt = pendingVt + mRemainderVt;
+        final double totalHz = pendingHz + mRemainderHz;
+        final int vt = (int) totalVt; // Towards zero
+        final int hz = (int) totalHz;
+        mRemainderVt = totalVt - vt;
+        mRemainderHz = totalHz - hz;
+
+        if (vt != 0 || hz != 0) mTarget.scroll(vt, hz); // No repaint for sub-pixel frames
+        final long appliedNs = System.nanoTime();
+        credits.giveBack();
+
+        // Latencies
+        final LatencyMonitor latencyMonitor = LatencyMonitor.get();
+        for (int i = 0; i < stamps.n; i++) {
+            latencyMonitor.record(stamps.techs[i],
+                    stamps.arrivalNs[i], stamps.dispatchNs[i], edtNs, appliedNs, stamps.networkMs[i]);
+        }
+        stamps.n = 0;
+
+        // Stats
+        mNFrames++;
+        mNMerged += nMerged;
+        mLastMerged = nMerged;
+        mMaxMerged = Math.max(mMaxMerged, nMerged);
+        mMergedHist[Math.min(nMerged, MAX_MERGED_BIN)]++;
+        Logs.d(TAG, "Merged", nMerged, vt, hz);
+    }
+
+    /**
+     * Get the number of memos merged in the last applied frame
+     * @return Number of memos
+     */
+    public int getLastMerged() {
+        return mLastMerged;
+    }
+
+    /**
+     * Get the number of frames applied for each merged count
+     * @return Array (index = merged count, last index = that many or more)
+     */
+    public long[] getMergedHistogram() {
+        return mMergedHist.clone();
+    }
+
+    /**
+     * Get the frame clock (e.g. for its timing stats, on the EDT)
+     * @return FrameClock
+     */
+    public FrameClock getFrameClock() {
+        return mFrameClock;
+    }
+
+    /**
+     * Get the merge stats
+     * @return String (frames, avg and max merged per frame)
+     */
+    public String getStats() {
+        return String.format("frames: %d | merged: %d (avg %.2f, max %d per frame)",
+                mNFrames, mNMerged, mNFrames == 0 ? 0.0 : (double) mNMerged / mNFrames, mMaxMerged);
+    }
+}
@@ -0,0 +1,176 @@
+package control;
+
+import data.Memo;
+import experiment.Experiment.TECHNIQUE;
+import tools.LatencyHistogram;
+import tools.Logs;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces the rate-based scrolling on one long-lived thread
+ * Ticks are on System.nanoTime deadlines (park until close, then spin), each tick applies velocity * (real dt)
+ * (fractional pixels, the ScrollCoalescer carries the rest). A late tick doesn't shift the next deadlines
+ * The lateness of each tick (jitter) is kept in a histogram
+ */
+public class ScrollPacer implements Runnable {
+    private final static String NAME = "ScrollPacer/";
+    // -------------------------------------------------------------------------------------------
+    public static final long TICK_NS = 1_000_000; // 1 ms (the velocity is per ms)
+    private static final long DEFAULT_SPIN_NS = 100_000; // Spin this close to the deadline (parking is coarser)
+
+    private final AtomicReference<Velocity> mVelocity = new AtomicReference<>(); // null -> not scrolling
+    private volatile Thread mThread;
+    private volatile boolean mRunning = true;
+    private volatile long mSpinNs = DEFAULT_SPIN_NS;
+
+    private final LatencyHistogram mJitterHist = new LatencyHistogram(); // Tick lateness (us), guarded by itself
+
+    // -------------------------------------------------------------------------------------------
+
+    // Scroll velocity (replaced as a whole by each memo)
+    public static class Velocity {
+        final double vtScrollAmt; // px / 1 ms
+        final double hzScrollAmt; // px / 1 ms
+
+        // Stamps of the starting memo (for latency), the memo itself goes back to the MemoPool
+        final boolean stamped;
+        final long arrivalNs;
+        final long dispatchNs;
+        final long networkMs;
+
+        /**
+         * Constructor
+         * @param vtScrollAmt Vertical amount per ms (px)
+         * @param hzScrollAmt Horizontal amount per ms (px)
+         * @param memo Starting memo (can be null)
+         */
+        public Velocity(double vtScrollAmt, double hzScrollAmt, Memo memo) {
+            this.vtScrollAmt = vtScrollAmt;
+            this.hzScrollAmt = hzScrollAmt;
+            this.stamped = memo != null && memo.getArrivalNs() != 0;
+            this.arrivalNs = memo != null ? memo.getArrivalNs() : 0;
+            this.dispatchNs = memo != null ? memo.getDispatchNs() : 0;
+            this.networkMs = memo != null ? LatencyMonitor.networkDelay(memo) : -1;
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------
+
+    @Override
+    public void run() {
+        final String TAG = NAME + "run";
+        mThread = Thread.currentThread();
+
+        Velocity velocity = null; // Current one
+        long deadline = 0;
+        long lastTickNs = 0;
+
+        while (mRunning) {
+            final Velocity newVelocity = mVelocity.get();
+            if (newVelocity == null) { // Stopped
+                if (velocity != null) Logs.d(TAG, "Stopped", getJitterStats());
+                velocity = null;
+                LockSupport.park(this); // Until the next velocity (or shutdown)
+                continue;
+            }
+
+            final long now = System.nanoTime();
+            if (newVelocity != velocity) { // Starts now (dt = 0), the first tick carries the memo's stamps
+                // Rest of the old velocity (since its last tick)
+                final double dtMs = velocity == null ? 0 : (now - lastTickNs) / 1e6;
+                final double vtScrollAmt = velocity == null ? 0 : velocity.vtScrollAmt * dtMs;
+                final double hzScrollAmt = velocity == null ? 0 : velocity.hzScrollAmt * dtMs;
+
+                velocity = newVelocity;
+                lastTickNs = now;
+                deadline = now + TICK_NS;
+
+                if (velocity.stamped) {
+                    ScrollCoalescer.get().submitStamped(vtScrollAmt, hzScrollAmt, TECHNIQUE.RATE_BASED, // Credit given back by the Controller
+                            velocity.arrivalNs, velocity.dispatchNs, velocity.networkMs);
+                } else if (vtScrollAmt != 0 || hzScrollAmt != 0) {
+                    ScrollCoalescer.get().submit(vtScrollAmt, hzScrollAmt);
+                }
+                continue;
+            }
+
+            // Wait for the deadline (a new velocity or stop wakes up the park)
+            final long remaining = deadline - now;
+            if (remaining > mSpinNs) {
+                LockSupport.parkNanos(this, remaining - mSpinNs);
+                continue;
+            }
+            while (System.nanoTime() - deadline < 0) Thread.onSpinWait();
+            if (mVelocity.get() != velocity) continue; // Changed (or stopped) while spinning
+
+            // Tick
+            final long tickNs = System.nanoTime();
+            synchronized (mJitterHist) {
+                mJitterHist.record((tickNs - deadline) / 1000);
+            }
+
+            final double dtMs = (tickNs - lastTickNs) / 1e6;
+            lastTickNs = tickNs;
+            ScrollCoalescer.get().submit(velocity.vtScrollAmt * dtMs, velocity.hzScrollAmt * dtMs);
+
+            // Next deadline (missed ticks are not caught up, dt already covers them)
+            deadline += TICK_NS;
+            if (tickNs - deadline > 0) deadline = tickNs + TICK_NS;
+        }
+        Logs.d(TAG, "Shut down");
+    }
+
+    /**
+     * Set the velocity (replaces the current one, from any thread)
+     * @param velocity Velocity
+     */
+    public void setVelocity(Velocity velocity) {
+        mVelocity.set(velocity);
+        LockSupport.unpark(mThread); // null (not started yet) is ignored
+    }
+
+    /**
+     * Stop scrolling (no tick is applied after this returns, except one that had already started)
+     */
+    public void stop() {
+        mVelocity.set(null);
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * Stop the pacing thread (end of the app or a benchmark)
+     */
+    public void shutdown() {
+        mRunning = false;
+        stop();
+    }
+
+    /**
+     * Set how close to the deadline the pacer spins instead of parking
+     * @param spinNs Spin window (ns), 0 = only park (less CPU, more jitter)
+     */
+    public void setSpinNs(long spinNs) {
+        mSpinNs = Math.max(0, spinNs);
+    }
+
+    /**
+     * Get the tick jitter (lateness after the deadline)
+     * @return String (percentiles in us)
+     */
+    public String getJitterStats() {
+        synchronized (mJitterHist) {
+            return "tick jitter " + mJitterHist;
+        }
+    }
+
+    /**
+     * Reset the tick jitter histogram
+     */
+    public void resetJitter() {
+        synchronized (mJitterHist) {
+            mJitterHist.reset();
+        }
+    }
+}
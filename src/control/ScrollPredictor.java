@@ -0,0 +1,239 @@
+package control;
+
+import experiment.Experiment.TECHNIQUE;
+import gui.ExperimentFrame;
+import tools.Logs;
+import tools.Utils;
+
+import java.awt.*;
+
+/**
+ * Optional predictor of the DRAG/FLICK scrolling (between the Controller and the ScrollCoalescer)
+ * The position is moved every display frame, not only when a sample arrives: between samples it follows the
+ * velocity estimate (dead-reckoning), ahead by the lead and at most the horizon after the last sample
+ * When a sample arrives, the difference between the shown and the actual position is blended out
+ * (exponentially, CORRECTION_TAU_MS) instead of jumping. Without samples for GESTURE_GAP_NS, it settles on the
+ * actual position
+ * The samples keep their stamps and credits (submitted with no amount), predicted vs. actual positions are
+ * logged per frame (PREDICT), the raw samples are logged unchanged
+ */
+public class ScrollPredictor {
+    private final static String NAME = "ScrollPredictor/";
+    // -------------------------------------------------------------------------------------------
+    private static final ScrollPredictor self = new ScrollPredictor(); // Singleton (eager: used from several threads)
+
+    private static final double DEFAULT_LEAD_MS = ScrollCoalescer.FRAME_MS; // Shown on the next frame
+    private static final double DEFAULT_HORIZON_MS = 50; // Max extrapolation after the last sample
+    private static final long VELOCITY_WINDOW_NS = 8_000_000; // Min span of one velocity estimate
+    private static final double VELOCITY_ALPHA = 0.5; // Weight of the newest estimate
+    private static final double CORRECTION_TAU_MS = 30;
+    private static final long GESTURE_GAP_NS = 150_000_000; // No samples for this long -> end of the gesture
+    private static final double SETTLED_PX = 0.01;
+
+    private final Runnable mFrameTask = this::frame; // On the ScrollCoalescer's frames (same reference to remove)
+    private volatile boolean mEnabled;
+    private volatile double mLeadMs = DEFAULT_LEAD_MS;
+    private volatile double mHorizonMs = DEFAULT_HORIZON_MS;
+
+    // Gesture (guarded by this: samples from the receiving thread, frames on the EDT)
+    private boolean mActive;
+    private TECHNIQUE mTech;
+    private double mActualVt, mActualHz; // px (sum of the samples)
+    private double mShownVt, mShownHz; // px (sum of the submitted amounts)
+    private double mVelVt, mVelHz; // px/ms
+    private boolean mHasVelocity;
+    private double mOffsetVt, mOffsetHz; // Shown - actual at the last sample (px)
+    private long mLastSampleNs;
+    private long mWindowStartNs;
+    private double mWindowVt, mWindowHz; // px since mWindowStartNs
+
+    // Stats (guarded by this)
+    private long mNSamples;
+    private long mNFrames;
+    private double mSumCorrection; // |offset| at the samples (px)
+    private double mMaxCorrection;
+
+    private final Logger.PredictInfo mPredictInfo = new Logger.PredictInfo(); // Reused (filled and logged on the EDT)
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Get the instance
+     * @return Singleton instance
+     */
+    public static ScrollPredictor get() {
+        return self;
+    }
+
+    /**
+     * Turn the prediction on/off (off: the amounts go straight to the ScrollCoalescer)
+     * @param enabled True/false
+     */
+    public void setEnabled(boolean enabled) {
+        final String TAG = NAME + "setEnabled";
+
+        synchronized (this) {
+            mActive = false;
+        }
+        mEnabled = enabled;
+        if (enabled) ScrollCoalescer.get().addFrameTask(mFrameTask);
+        else ScrollCoalescer.get().removeFrameTask(mFrameTask);
+        Logs.d(TAG, enabled, mLeadMs, mHorizonMs);
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Set how far the prediction goes
+     * @param leadMs Lead ahead of the samples (ms)
+     * @param horizonMs Max extrapolation after the last sample (ms, includes the lead)
+     */
+    public void setHorizon(double leadMs, double horizonMs) {
+        mHorizonMs = Math.max(0, horizonMs);
+        mLeadMs = Math.max(0, Math.min(leadMs, mHorizonMs));
+    }
+
+    /**
+     * Add a received sample (from any thread)
+     * @param tech Technique
+     * @param vtScrollAmt Vertical amount (px)
+     * @param hzScrollAmt Horizontal amount (px)
+     * @param sampleNs Time of the sample (nanoTime)
+     */
+    public void sample(TECHNIQUE tech, double vtScrollAmt, double hzScrollAmt, long sampleNs) {
+        synchronized (this) {
+            if (!mActive) { // New gesture
+                mActualVt = mActualHz = mShownVt = mShownHz = 0;
+                mVelVt = mVelHz = 0;
+                mHasVelocity = false;
+                mWindowStartNs = sampleNs;
+                mWindowVt = mWindowHz = 0;
+                mActive = true;
+            }
+            mTech = tech;
+
+            mActualVt += vtScrollAmt;
+            mActualHz += hzScrollAmt;
+
+            // Velocity over spans of at least the window (bursts of samples come at once)
+            mWindowVt += vtScrollAmt;
+            mWindowHz += hzScrollAmt;
+            final long spanNs = sampleNs - mWindowStartNs;
+            if (spanNs >= VELOCITY_WINDOW_NS) {
+                final double spanMs = spanNs / 1e6;
+                final double alpha = mHasVelocity ? VELOCITY_ALPHA : 1;
+                mVelVt = alpha * (mWindowVt / spanMs) + (1 - alpha) * mVelVt;
+                mVelHz = alpha * (mWindowHz / spanMs) + (1 - alpha) * mVelHz;
+                mHasVelocity = true;
+                mWindowStartNs = sampleNs;
+                mWindowVt = mWindowHz = 0;
+            }
+
+            // What's shown so far vs. the actual position is blended out from here
+            mOffsetVt = mShownVt - mActualVt;
+            mOffsetHz = mShownHz - mActualHz;
+            mLastSampleNs = sampleNs;
+
+            final double correction = Math.hypot(mOffsetVt, mOffsetHz);
+            mSumCorrection += correction;
+            mMaxCorrection = Math.max(mMaxCorrection, correction);
+            mNSamples++;
+        }
+    }
+
+    /**
+     * End of the touch (e.g. a STOP): no more extrapolation, settle on the actual position
+     */
+    public synchronized void stop() {
+        if (!mActive) return;
+        settle(System.nanoTime());
+    }
+
+    /**
+     * Move the shown position for this frame (ScrollCoalescer's frame task, on the EDT)
+     */
+    private void frame() {
+        final long nowNs = System.nanoTime();
+        final double vt, hz;
+        final double sinceMs;
+        synchronized (this) {
+            if (!mActive) return;
+
+            if (nowNs - mLastSampleNs > GESTURE_GAP_NS && (mVelVt != 0 || mVelHz != 0)) settle(nowNs);
+
+            sinceMs = Math.max(0, nowNs - mLastSampleNs) / 1e6;
+            final double extMs = Math.min(sinceMs + mLeadMs, mHorizonMs);
+            final double decay = Math.exp(-sinceMs / CORRECTION_TAU_MS);
+            double targetVt = mActualVt + mVelVt * extMs + mOffsetVt * decay;
+            double targetHz = mActualHz + mVelHz * extMs + mOffsetHz * decay;
+
+            // Settled (no velocity, correction done) -> exactly on the actual position, end of the gesture
+            if (mVelVt == 0 && mVelHz == 0 && Math.hypot(mOffsetVt, mOffsetHz) * decay < SETTLED_PX) {
+                targetVt = mActualVt;
+                targetHz = mActualHz;
+                mActive = false;
+            }
+
+            vt = targetVt - mShownVt;
+            hz = targetHz - mShownHz;
+            mShownVt = targetVt;
+            mShownHz = targetHz;
+            mNFrames++;
+
+            mPredictInfo.tech = mTech;
+            mPredictInfo.actualVt = mActualVt;
+            mPredictInfo.actualHz = mActualHz;
+            mPredictInfo.predictedVt = mShownVt;
+            mPredictInfo.predictedHz = mShownHz;
+        }
+
+        ScrollCoalescer.get().submit(vt, hz); // Part of this frame (fractions carried by the coalescer)
+        log(sinceMs);
+    }
+
+    /**
+     * Stop extrapolating and blend to the actual position
+     * @param nowNs Time (nanoTime)
+     */
+    private void settle(long nowNs) {
+        mVelVt = mVelHz = 0;
+        mOffsetVt = mShownVt - mActualVt;
+        mOffsetHz = mShownHz - mActualHz;
+        mLastSampleNs = nowNs;
+    }
+
+    /**
+     * Log the predicted vs. actual position of the frame (in a trial, outside the lock)
+     * @param sinceMs Time since the last sample (ms)
+     */
+    private void log(double sinceMs) {
+        if (GraphicsEnvironment.isHeadless()) return; // No experiment (simulator)
+        final Logger.GeneralInfo genInfo = ExperimentFrame.get().getGenInfo();
+        if (genInfo == null || genInfo.trial == null) return;
+
+        mPredictInfo.sinceSample = Math.round(sinceMs);
+        mPredictInfo.moment = Utils.nowInMillis();
+        Logger.get().logPredictInfo(genInfo, mPredictInfo);
+    }
+
+    /**
+     * Get the prediction stats
+     * @return String (samples, frames, avg and max correction in px)
+     */
+    public synchronized String getStats() {
+        return String.format("samples: %d | frames: %d | correction avg %.2f px, max %.2f px",
+                mNSamples, mNFrames, mNSamples == 0 ? 0.0 : mSumCorrection / mNSamples, mMaxCorrection);
+    }
+
+    /**
+     * Reset the stats
+     */
+    public synchronized void resetStats() {
+        mNSamples = 0;
+        mNFrames = 0;
+        mSumCorrection = 0;
+        mMaxCorrection = 0;
+    }
+}
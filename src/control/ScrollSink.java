@@ -0,0 +1,15 @@
+package control;
+
+import data.Memo;
+
+/**
+ * Where the Server hands the SCROLL memos (called on the receiving thread)
+ */
+public interface ScrollSink {
+
+    /**
+     * Handle a SCROLL (or SCROLL_BATCH) memo
+     * @param memo Memo (not kept after, it goes back to the MemoPool)
+     */
+    void scroll(Memo memo);
+}
@@ -0,0 +1,14 @@
+package control;
+
+/**
+ * Where the merged scroll amounts are applied (called on the EDT)
+ */
+public interface ScrollTarget {
+
+    /**
+     * Scroll by an amount
+     * @param vtScrollAmt Vertical scroll amount (px)
+     * @param hzScrollAmt Horizontal scroll amount (px)
+     */
+    void scroll(int vtScrollAmt, int hzScrollAmt);
+}
@@ -0,0 +1,92 @@
+package control;
+
+/**
+ * Keeps track of the sequence numbers of one datagram stream
+ * Only newer packets are accepted, late (out-of-order) and duplicate ones are dropped
+ * Seqs are compared with serial-number arithmetic (they can wrap), seq 0 is "not numbered" (always accepted)
+ * A restarted sender (numbering from 1 again) needs a restart() here too
+ */
+public class SeqTracker {
+
+    private int lastSeq;
+    private boolean started;
+
+    // Counters
+    private long nReceived;
+    private long nAccepted;
+    private long nLost;
+    private long nReordered; // Arrived after a newer packet (dropped)
+    private long nDuplicates; // Dropped
+    private long nRestarts;
+
+    /**
+     * Check a sequence number
+     * @param seq Sequence number (0 = not numbered)
+     * @return True if the packet should be used, false if dropped
+     */
+    public synchronized boolean accept(int seq) {
+        nReceived++;
+
+        if (seq == 0) { // Nothing to compare
+            nAccepted++;
+            return true;
+        }
+
+        final int diff = seq - lastSeq; // Wraps around
+        if (!started || diff > 0) {
+            if (started) nLost += diff - 1; // Gap
+            started = true;
+            lastSeq = seq;
+            nAccepted++;
+            return true;
+        }
+
+        if (diff == 0) {
+            nDuplicates++;
+        } else {
+            nReordered++;
+            if (nLost > 0) nLost--; // Was counted as lost, but just arrived late
+        }
+
+        return false;
+    }
+
+    /**
+     * The sender starts numbering again (e.g. reconnected): the next seq is accepted whatever it is
+     * The counters are kept
+     */
+    public synchronized void restart() {
+        if (started) nRestarts++;
+        started = false;
+    }
+
+    public synchronized long getNReceived() {
+        return nReceived;
+    }
+
+    public synchronized long getNAccepted() {
+        return nAccepted;
+    }
+
+    public synchronized long getNLost() {
+        return nLost;
+    }
+
+    public synchronized long getNReordered() {
+        return nReordered;
+    }
+
+    public synchronized long getNDuplicates() {
+        return nDuplicates;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "received: " + nReceived +
+                " | accepted: " + nAccepted +
+                " | lost: " + nLost +
+                " | reordered: " + nReordered +
+                " | duplicates: " + nDuplicates +
+                " | restarts: " + nRestarts;
+    }
+}
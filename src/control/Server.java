@@ -4,12 +4,26 @@ package control;
 import static data.Consts.STRINGS.*;
 
 import experiment.Experiment;
+import gui.ExperimentFrame;
 import tools.Logs;
+import tools.Utils;
 import data.Memo;
+import data.MemoCodec;
+import data.MemoParser;
+import data.MemoPool;
 
+import java.awt.GraphicsEnvironment;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 public class Server {
     private final static String NAME = "Server/";
@@ -18,109 +32,229 @@ public class Server {
 
     private final int PORT = 8000; // always the same
     private final int CONNECTION_TIMEOUT = 60 * 1000; // 1 min
+    private final int IN_BUFFER_SIZE = 8 * 1024; // bytes (per client)
+    private final int OUT_BUFFER_SIZE = 16 * 1024; // bytes (per client, grows if needed)
+    private final int MAX_OUT_PENDING = 1024 * 1024; // bytes (a client with more pending is dropped)
+    private final int OUT_QUEUE_CAPACITY = 1024; // memos
+    private final int REPLAY_CAPACITY = 256; // Last broadcast memos kept for resuming clients
+    private final int HEALTH_CHECK_MS = 100; // Max. delay of stall detection (on top of the stall timeout)
+    private final int HEALTH_LOG_MS = 1000; // Health of each connection is logged this often (and on changes)
+    private final int MAX_LINE_LENGTH = MemoCodec.MAX_FRAME_SIZE; // chars (a longer text line closes the client)
 
-    private ServerSocket serverSocket;
-    private Socket socket;
-    private PrintWriter outPW;
-    private BufferedReader inBR;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private final Map<SocketChannel, Client> clients = new ConcurrentHashMap<>();
 
-    private ExecutorService executor;
+    // UDP (only for SCROLL memos, same port)
+    private DatagramChannel udpChannel;
+    private final ByteBuffer udpBuffer = ByteBuffer.allocateDirect(MemoCodec.MAX_FRAME_SIZE);
+    private final Map<SocketAddress, SeqTracker> udpTrackers = new ConcurrentHashMap<>();
+    private final Map<SocketAddress, Integer> udpIds = new HashMap<>(); // Sender ids in the capture
 
-    //----------------------------------------------------------------------------------------
+    // Outbound: many producers (send), one writer (the selector thread)
+    private final BlockingQueue<Outgoing> outQueue = new ArrayBlockingQueue<>(OUT_QUEUE_CAPACITY);
+    private final List<Outgoing> drainList = new ArrayList<>(OUT_QUEUE_CAPACITY);
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
 
-    //-- Runnable for waiting for incoming connections
-    private class ConnWaitRunnable implements Runnable {
-        String TAG = NAME + "ConnWaitRunnable";
+    // Broadcast memos are numbered (when drained, connected clients or not) and kept for replay
+    // (only used by the selector thread)
+    private final Memo[] replayRing = new Memo[REPLAY_CAPACITY];
+    private int outSeq; // Seq of the last broadcast memo
 
-        private boolean mInitExpFlag;
+    private volatile SessionCapture capture; // Inbound bytes (null -> not capturing)
+    private volatile ScrollSink scrollSink; // null -> the Controller
+    private final Map<Integer, Client> replayClients = new HashMap<>(); // By id (only used by the replaying thread)
 
-        public ConnWaitRunnable(boolean initExpFlag) {
-            this.mInitExpFlag = initExpFlag;
-        }
+    // Inbound dispatch tables (built once, looked up by the memo's types)
+    private final Map<Memo.ACTION, MemoHandler> actionHandlers = new EnumMap<>(Memo.ACTION.class);
+    private final Map<Memo.MODE, MemoHandler> connectionHandlers = new EnumMap<>(Memo.MODE.class);
 
-        @Override
-        public void run() {
-            try {
-                Logs.d(TAG, "Waiting for connections...");
-                if (serverSocket == null) serverSocket = new ServerSocket(PORT);
-                socket = serverSocket.accept();
+    // Shared-memory ring (co-located Moose bridge)
+    private SharedRing sharedRing;
+    private volatile boolean ringRunning;
 
-                // When reached here, Moose is connected
-                Logs.d(TAG, "Moose connected!");
+    private volatile Thread selectorThread;
+    private volatile boolean running;
+    private volatile CountDownLatch selectorDone; // Counted down when the selector loop has closed everything
+    private volatile boolean mInitExpFlag; // Send the init exp. info to the next connected client
 
-                // Create streams
-                inBR = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                outPW = new PrintWriter(new BufferedWriter(
-                        new OutputStreamWriter(socket.getOutputStream())), true);
+    // Stats
+    private final AtomicInteger nConnections = new AtomicInteger(); // Currently connected
+    private final AtomicInteger nTotalConnections = new AtomicInteger(); // Since start
+    private long lastHealthCheckMs;
+    private volatile long nDrains, nDrainedMemos;
+    private volatile int maxDrainBatch, maxQueueDepth;
 
-                // Start receiving
-                executor.execute(new InRunnable());
+    private ExecutorService executor;
 
-                // If initExp flag is true, sent init exp. info
-                if (mInitExpFlag) Logger.get().initLogOnMoose();
+    //----------------------------------------------------------------------------------------
 
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    //-- One connected Moose (or any other client)
+    private class Client {
+        final int id;
+        final SocketChannel channel;
+        final String address;
+        final ByteBuffer inBuffer = ByteBuffer.allocateDirect(IN_BUFFER_SIZE);
+        final StringBuilder lineSB = new StringBuilder();
+        ByteBuffer outBuffer = ByteBuffer.allocateDirect(OUT_BUFFER_SIZE); // Pending bytes (fill mode)
+        boolean binaryIn; // Binary framing (negotiated with CONNECTION,PROTOCOL)
+        boolean binaryOut; // Switched after the negotiation reply is encoded
+        long lastReadNs; // Arrival time of the last read (stamped on its memos)
+        final ClockSync clockSync = new ClockSync();
+        final int firstSeq; // First broadcast seq that this client gets live (older ones can be replayed)
+        final ConnectionHealth health = new ConnectionHealth(nowMs());
+        long lastHealthLogMs;
+        boolean resumable; // Sent RESUME -> gets the seq in text memos too
+        boolean negotiated; // Sent PROTOCOL -> gets credits, clock probes and keep-alive intervals (see isNegotiatedOnly)
+
+        // Throughput counters
+        final long connectedAt = System.currentTimeMillis();
+        long nBytesIn, nMemosIn;
+        long nBytesOut, nMemosOut;
+
+        Client(int id, SocketChannel channel, int firstSeq) {
+            this.id = id;
+            this.channel = channel;
+            this.firstSeq = firstSeq;
+            this.address = channel == null ? "local" : String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+
+        /**
+         * Is the client still connected? (replayed and shared-ring clients have no channel)
+         * @return True/false
+         */
+        boolean isOpen() {
+            return channel == null || channel.isOpen();
+        }
+
+        /**
+         * Get the throughput stats of this client
+         * @return String (memos and bytes, in total and per second)
+         */
+        String getStats() {
+            final double durSec = Math.max(1, System.currentTimeMillis() - connectedAt) / 1000.0;
+            return String.format("#%d %s | in: %d memos (%.1f/s), %d B (%.1f B/s) | out: %d memos, %d B",
+                    id, address,
+                    nMemosIn, nMemosIn / durSec, nBytesIn, nBytesIn / durSec,
+                    nMemosOut, nBytesOut);
         }
     }
 
-    //-- Runnable for sending messages to Moose
-    private class OutRunnable implements Runnable {
-        String TAG = NAME + "OutRunnable";
-        Memo message;
+    //-- Runnable for polling the shared-memory ring (spin, then yield, then park)
+    private class RingPollRunnable implements Runnable {
+        String TAG = NAME + "RingPollRunnable";
 
-        public OutRunnable(Memo mssg) {
-            message = mssg;
+        private static final int N_SPINS = 1000;
+        private static final int N_YIELDS = 100;
+        private static final long PARK_NS = 50_000;
+
+        private final SharedRing ring;
+        private final Client client;
+
+        RingPollRunnable(SharedRing ring, Client client) {
+            this.ring = ring;
+            this.client = client;
         }
 
         @Override
         public void run() {
-            if (message != null && outPW != null) {
-                outPW.println(message);
-                outPW.flush();
-                Logs.d(TAG, message.toString());
+            int nIdle = 0;
+            while (ringRunning) {
+                final Memo memo = MemoPool.acquire();
+                final boolean polled;
+                try {
+                    polled = ring.poll(memo);
+                } catch (IllegalStateException e) { // Malformed frame (skipped), the poller goes on
+                    Logs.d(TAG, "Dropped frame", e.getMessage());
+                    MemoPool.release(memo);
+                    continue;
+                }
+
+                if (!polled) {
+                    MemoPool.release(memo);
+                    nIdle++;
+                    if (nIdle > N_SPINS + N_YIELDS) LockSupport.parkNanos(PARK_NS);
+                    else if (nIdle > N_SPINS) Thread.yield();
+                    else Thread.onSpinWait();
+                    continue;
+                }
+
+                nIdle = 0;
+                client.lastReadNs = System.nanoTime();
+                client.nMemosIn++;
+                dispatch(client, memo); // Errors of the handlers are caught there
             }
+            Logs.d(TAG, "Stopped", client.getStats());
+        }
+    }
+
+    //-- Handler of one type of inbound memo (see dispatch)
+    private interface MemoHandler {
+        void handle(Client client, Memo memo);
+    }
+
+    //-- A memo waiting to be written
+    private static class Outgoing {
+        final Client client; // null -> all clients
+        final Memo memo;
+
+        Outgoing(Client client, Memo memo) {
+            this.client = client;
+            this.memo = memo;
         }
     }
 
-    //-- Runnable for receiving messages from Moose
-    private class InRunnable implements Runnable {
-        String TAG = NAME + "InRunnable";
-        String mssg;
+    //-- Runnable for the selector loop (accept, read and write for all clients)
+    private class SelectorRunnable implements Runnable {
+        String TAG = NAME + "SelectorRunnable";
 
         @Override
         public void run() {
-            while (!Thread.currentThread().isInterrupted() && inBR != null) {
-                try {
-//                    Logs.d(TAG, "Reading messages...");
-                    if ((mssg = inBR.readLine()) != null) {
-                        Memo memo = Memo.valueOf(mssg);
-                        Logs.d(TAG, memo);
-                        switch (memo.getAction()) {
-                            case SCROLL -> {
-                                Controller.get().scroll(memo);
-                            }
-                            case CONNECTION -> {
-                                if (memo.getMode().equals(KEEP_ALIVE)) {
-                                    send(memo); // Send back the message (as confimation)
-                                }
+            selectorThread = Thread.currentThread();
+            try {
+                Logs.d(TAG, "Waiting for connections...");
+                while (running) {
+                    selector.select(HEALTH_CHECK_MS); // Wake up for the health checks too
+
+                    final Iterator<SelectionKey> keyIt = selector.selectedKeys().iterator();
+                    while (keyIt.hasNext()) {
+                        final SelectionKey key = keyIt.next();
+                        keyIt.remove();
+
+                        if (!key.isValid()) continue;
+                        try {
+                            if (key.isAcceptable()) accept();
+                            else if (key.channel() == udpChannel) receive();
+                            else {
+                                final Client client = (Client) key.attachment();
+                                if (key.isReadable()) read(client);
+                                if (key.isValid() && key.isWritable()) write(client);
                             }
+                        } catch (RuntimeException e) { // One key never stops the loop
+                            Logs.d(TAG, "Error in handling a key", e.toString());
+                            e.printStackTrace();
                         }
+                    }
+
+                    try {
+                        // Write whatever has been queued by send() in the meantime
+                        drainOutQueue();
 
-                    } else {
-                        Logs.d(TAG, "Moose disconnected.");
-                        Thread.currentThread().interrupt();
-                        openConnection();
-                        return;
+                        final long nowMs = nowMs();
+                        if (nowMs - lastHealthCheckMs >= HEALTH_CHECK_MS) {
+                            lastHealthCheckMs = nowMs;
+                            checkHealth(nowMs);
+                        }
+                    } catch (RuntimeException e) {
+                        Logs.d(TAG, "Error in writing/checking", e.toString());
+                        e.printStackTrace();
                     }
-                } catch (IOException e) {
-                    System.out.println("Error in reading from Moose");
-                    // Reconnect
-                    Thread.currentThread().interrupt();
-                    openConnection();
-//                    e.printStackTrace();
                 }
+            } catch (IOException e) {
+                Logs.d(TAG, "Selector failed, server closed", e.toString());
+                e.printStackTrace();
+            } finally {
+                closeChannels();
             }
         }
     }
@@ -144,26 +278,1006 @@ public class Server {
 
         // Init executerService for running threads
         executor = Executors.newCachedThreadPool();
+
+        // Dispatch tables
+        actionHandlers.put(Memo.ACTION.SCROLL, this::scroll);
+        actionHandlers.put(Memo.ACTION.SCROLL_BATCH, this::scroll);
+        actionHandlers.put(Memo.ACTION.FLING, this::scroll);
+        actionHandlers.put(Memo.ACTION.CONNECTION, (client, memo) -> {
+            final MemoHandler handler = connectionHandlers.get(memo.getModeType());
+            if (handler != null) handler.handle(client, memo);
+        });
+        connectionHandlers.put(Memo.MODE.KEEP_ALIVE, this::keepAlive);
+        connectionHandlers.put(Memo.MODE.SYNC, this::syncClock);
+        connectionHandlers.put(Memo.MODE.RESUME, this::resume);
+        connectionHandlers.put(Memo.MODE.PROTOCOL, this::negotiateProtocol);
+    }
+
+    /**
+     * Set where the SCROLL memos go (default: the Controller)
+     * @param sink ScrollSink (null -> the Controller)
+     */
+    public void setScrollSink(ScrollSink sink) {
+        scrollSink = sink;
     }
 
     /**
-     * Start receving connections
+     * Start receving connections (again after closeConnection or a selector failure)
      */
-    public void openConnection() {
-        executor.execute(new ConnWaitRunnable(false));
+    public synchronized void openConnection() {
+        final String TAG = NAME + "openConnection";
+        if (running) return;
+        awaitSelectorDone(); // The previous loop may still be closing its channels
+
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(PORT));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            udpChannel = DatagramChannel.open();
+            udpChannel.bind(new InetSocketAddress(PORT));
+            udpChannel.configureBlocking(false);
+            udpChannel.register(selector, SelectionKey.OP_READ);
+
+            selectorDone = new CountDownLatch(1);
+            running = true;
+            executor.execute(new SelectorRunnable());
+        } catch (IOException e) {
+            Logs.d(TAG, "Couldn't open the server on port " + PORT);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stop receiving connections: the selector loop closes all the channels (memos not sent yet are dropped)
+     * Returns when everything is closed
+     */
+    public synchronized void closeConnection() {
+        final String TAG = NAME + "closeConnection";
+        if (!running) return;
+
+        running = false;
+        selector.wakeup();
+        awaitSelectorDone();
+        Logs.d(TAG, "Closed");
+    }
+
+    /**
+     * Wait until the selector loop has closed everything (no-op if not started or on the selector thread)
+     */
+    private void awaitSelectorDone() {
+        final CountDownLatch done = selectorDone;
+        if (done == null || Thread.currentThread() == selectorThread) return;
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Close all the clients, the listening channels and the selector (end of the selector loop)
+     * Senders waiting for room in the outbound queue are let go (their memos are dropped)
+     */
+    private void closeChannels() {
+        final String TAG = NAME + "closeChannels";
+
+        running = false;
+        for (Client client : clients.values()) close(client);
+        for (Closeable closeable : new Closeable[]{serverChannel, udpChannel, selector}) {
+            try {
+                if (closeable != null) closeable.close();
+            } catch (IOException e) {
+                Logs.d(TAG, "Couldn't close", closeable, e.toString());
+            }
+        }
+        outQueue.clear();
+        drainList.clear();
+        selectorThread = null;
+        selectorDone.countDown();
+
+        Logs.d(TAG, "Server closed", getOutStats());
     }
 
     public void connectAndSyncExp() {
-        executor.execute(new ConnWaitRunnable(true));
+        mInitExpFlag = true;
+        openConnection();
+
+        // Capture the participant's session (for replay)
+        final Path capturePath = Logger.get().getCapturePath();
+        if (capturePath != null) startCapture(capturePath.toFile());
+    }
+
+    /**
+     * Receive memos from a co-located Moose bridge through a shared-memory ring (besides the sockets)
+     * The ring file is created (reset) here, the bridge opens it with SharedRing.open
+     * Replies (e.g. to KEEP_ALIVE) are not sent back over the ring
+     * @param file Ring file
+     * @throws IllegalStateException if the connection is not open (openConnection)
+     */
+    public void openSharedRing(File file) {
+        final String TAG = NAME + "openSharedRing";
+        if (ringRunning) return;
+        if (!running) throw new IllegalStateException("Open the connection first (openConnection)");
+
+        try {
+            sharedRing = SharedRing.create(file, SharedRing.DEFAULT_CAPACITY);
+            ringRunning = true;
+            executor.execute(new RingPollRunnable(sharedRing, new Client(0, null, outSeq + 1)));
+            Logs.d(TAG, "Polling", file);
+        } catch (IOException e) {
+            Logs.d(TAG, "Couldn't create the ring file", file);
+            e.printStackTrace();
+        }
     }
 
-    public void syncTechnique(Experiment.TECHNIQUE tech) {
+    /**
+     * Stop polling the shared-memory ring
+     */
+    public void closeSharedRing() {
+        ringRunning = false;
+        try {
+            if (sharedRing != null) sharedRing.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Start capturing the inbound bytes (TCP reads and UDP datagrams, with their arrival times)
+     * @param file Capture file (overwritten)
+     */
+    public void startCapture(File file) {
+        final String TAG = NAME + "startCapture";
+
+        stopCapture();
+        try {
+            capture = new SessionCapture(file);
+            Logs.d(TAG, "Capturing to", file);
+        } catch (IOException e) {
+            Logs.d(TAG, "Couldn't create the capture file", file);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stop capturing (and close the file)
+     */
+    public void stopCapture() {
+        final String TAG = NAME + "stopCapture";
+
+        final SessionCapture oldCapture = capture;
+        if (oldCapture == null) return;
+
+        capture = null;
+        try {
+            synchronized (oldCapture) { // The selector thread may be writing
+                oldCapture.close();
+            }
+            Logs.d(TAG, oldCapture);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Replay a capture through the same decode and dispatch path (on the calling thread, the server doesn't have
+     * to be open)
+     * Replayed clients have no channel: nothing is sent to them (no replies, no credits) and their clock syncs are
+     * ignored, so the live FlowControl, ClockSync and SYNC logs are not touched
+     * @param file Capture file
+     * @param speed Speed factor (1 = original timing, 0 = as fast as possible)
+     */
+    public void replay(File file, double speed) throws IOException {
+        final String TAG = NAME + "replay";
+
+        replayClients.clear(); // New session
+        final Map<SocketAddress, SeqTracker> replayTrackers = new HashMap<>();
+        long nRecords = 0;
+
+        try (SessionCapture.Reader reader = new SessionCapture.Reader(file)) {
+            final long stNs = System.nanoTime();
+            SessionCapture.Record record;
+            while ((record = reader.next()) != null) {
+                if (speed > 0) waitUntil(stNs + (long) (record.arrivalNs / speed));
+                final long arrivalNs = System.nanoTime();
+
+                if (record.source == SessionCapture.UDP) {
+                    final SocketAddress sender = InetSocketAddress.createUnresolved("replay", record.clientId);
+                    handleDatagram(sender, replayTrackers, record.bytes, arrivalNs);
+                } else {
+                    replayRead(record.clientId, record.bytes, arrivalNs);
+                }
+                nRecords++;
+            }
+        }
+
+        Logs.d(TAG, "Replayed", nRecords, "records from", file);
+    }
+
+    /**
+     * Decode and dispatch the bytes of a replayed TCP read (as if read from the client's channel)
+     * @param clientId Client id
+     * @param bytes Bytes (position -> limit)
+     * @param arrivalNs Arrival time (nanoTime)
+     */
+    void replayRead(int clientId, ByteBuffer bytes, long arrivalNs) {
+        final String TAG = NAME + "replayRead";
+
+        Client client = replayClients.get(clientId);
+        if (client == null) {
+            client = new Client(clientId, null, outSeq + 1);
+            replayClients.put(clientId, client);
+        }
+        client.nBytesIn += bytes.remaining();
+        client.inBuffer.put(bytes);
+        client.lastReadNs = arrivalNs;
+        try {
+            process(client);
+        } catch (IllegalStateException e) {
+            Logs.d(TAG, "Invalid frame in the capture, client", client.id);
+            client.inBuffer.clear();
+        }
+    }
+
+        public void syncTechnique(Experiment.TECHNIQUE tech) {
         Memo outMemo = new Memo(CONFIG, TECH, Experiment.TECHNIQUE.FLICK.toString(), 0);
         send(outMemo);
     }
 
+    /**
+     * Send a Memo to all the connected clients
+     * Memos are written in the order of sending (by the selector thread)
+     * Memos are numbered and kept for replay even with no client connected (a resuming Moose gets them)
+     * @param mssg Memo
+     */
     public void send(Memo mssg) {
-        executor.execute(new OutRunnable(mssg));
+        if (mssg == null || !running) return; // No session to resume yet
+        enqueue(new Outgoing(null, mssg));
+    }
+
+    /**
+     * Send a Memo only to one client (not numbered, not kept for replay)
+     * @param clientId Client id
+     * @param mssg Memo
+     */
+    public void send(int clientId, Memo mssg) {
+        if (mssg == null || !running) return;
+
+        for (Client client : clients.values()) {
+            if (client.id == clientId) {
+                send(client, mssg);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Send a Memo only to one client
+     * @param client Client (replayed and shared-ring clients have no channel: not sent)
+     * @param mssg Memo
+     */
+    private void send(Client client, Memo mssg) {
+        if (client.channel == null) return;
+        enqueue(new Outgoing(client, mssg));
+    }
+
+    /**
+     * Put a memo in the outbound queue and wake up the writer (once per drain)
+     * @param out Outgoing
+     */
+    private void enqueue(Outgoing out) {
+        final String TAG = NAME + "enqueue";
+
+        try {
+            if (Thread.currentThread() == selectorThread) { // The writer itself can't wait -> drain
+                while (!outQueue.offer(out)) drainOutQueue();
+            } else { // Waits only if the writer is far behind (and never after the server is closed)
+                while (!outQueue.offer(out, HEALTH_CHECK_MS, TimeUnit.MILLISECONDS)) {
+                    if (!running) return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Logs.d(TAG, "Interrupted, memo not sent", out.memo);
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        maxQueueDepth = Math.max(maxQueueDepth, outQueue.size());
+        if (wakeupPending.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    /**
+     * Get the outbound queue stats
+     * @return String (current/max queue depth and drain batch sizes)
+     */
+    public String getOutStats() {
+        final long drains = nDrains;
+        return String.format("queue depth: %d (max %d) | drains: %d | batch: avg %.2f, max %d",
+                outQueue.size(), maxQueueDepth,
+                drains, drains == 0 ? 0.0 : (double) nDrainedMemos / drains, maxDrainBatch);
+    }
+
+    /**
+     * Get the number of currently connected clients
+     * @return Number of connections
+     */
+    public int getNConnections() {
+        return nConnections.get();
+    }
+
+    /**
+     * Get the number of connections since the server was opened
+     * @return Number of connections
+     */
+    public int getNTotalConnections() {
+        return nTotalConnections.get();
+    }
+
+    /**
+     * Get the throughput stats of all the connected clients
+     * @return List of stats (one line per client)
+     */
+    public List<String> getClientStats() {
+        final List<String> result = new ArrayList<>();
+        for (Client client : clients.values()) result.add(client.getStats());
+
+        return result;
+    }
+
+    /**
+     * Get the datagram stats of all the UDP senders
+     * @return List of stats (one line per sender)
+     */
+    public List<String> getUdpStats() {
+        final List<String> result = new ArrayList<>();
+        udpTrackers.forEach((address, tracker) -> result.add(address + " | " + tracker));
+
+        return result;
+    }
+
+    /**
+     * Get the total number of lost SCROLL datagrams
+     * @return Number of lost datagrams
+     */
+    public long getNUdpLost() {
+        long result = 0;
+        for (SeqTracker tracker : udpTrackers.values()) result += tracker.getNLost();
+
+        return result;
+    }
+
+    /**
+     * Get the total number of reordered (and dropped) SCROLL datagrams
+     * @return Number of reordered datagrams
+     */
+    public long getNUdpReordered() {
+        long result = 0;
+        for (SeqTracker tracker : udpTrackers.values()) result += tracker.getNReordered();
+
+        return result;
+    }
+
+    //----------------------------------------------------------------------------------------
+
+    /**
+     * Accept a new connection
+     */
+    private void accept() throws IOException {
+        final String TAG = NAME + "accept";
+
+        final SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        final Client client = new Client(nTotalConnections.incrementAndGet(), channel, outSeq + 1);
+        channel.register(selector, SelectionKey.OP_READ, client);
+        clients.put(channel, client);
+        nConnections.incrementAndGet();
+        restartUdpTrackers(client); // A reconnected Moose numbers its datagrams from 1 again
+
+        // When reached here, Moose is connected
+        Logs.d(TAG, "Moose connected!", client.id, client.address, "Connections: " + nConnections.get());
+
+        // If initExp flag is true, sent init exp. info
+        if (mInitExpFlag) {
+            mInitExpFlag = false;
+            Logger.get().initLogOnMoose();
+        }
+    }
+
+    /**
+     * Read the available bytes from a client and dispatch the complete memos
+     * @param client Client
+     */
+    private void read(Client client) {
+        final String TAG = NAME + "read";
+
+        try {
+            final int start = client.inBuffer.position();
+            final int nRead = client.channel.read(client.inBuffer);
+            if (nRead == -1) {
+                Logs.d(TAG, "Moose disconnected.");
+                close(client);
+                return;
+            }
+
+            client.nBytesIn += nRead;
+            client.lastReadNs = System.nanoTime();
+
+            if (capture != null && nRead > 0) {
+                final ByteBuffer chunk = client.inBuffer.duplicate();
+                chunk.flip().position(start);
+                capture(SessionCapture.TCP, client.id, client.lastReadNs, chunk);
+            }
+
+            process(client);
+
+        } catch (IOException e) {
+            System.out.println("Error in reading from Moose");
+            close(client);
+        } catch (IllegalStateException e) { // Invalid frame length or line: the stream can't be followed anymore
+            System.out.println("Invalid frame from Moose");
+            close(client);
+        } catch (RuntimeException e) {
+            Logs.d(TAG, "Error in reading from", client.id, e.toString());
+            e.printStackTrace();
+            close(client);
+        }
+    }
+
+    /**
+     * Decode and dispatch the complete memos in a client's buffer (the rest is kept for the next read)
+     * @param client Client
+     * @throws IllegalStateException if a frame length is invalid or a text line is too long
+     */
+    private void process(Client client) {
+        final String TAG = NAME + "process";
+
+        // Protocol can change in the middle of the buffer (after the negotiation)
+        client.inBuffer.flip();
+        while (client.inBuffer.hasRemaining() && client.isOpen()) {
+            if (client.binaryIn) {
+                if (MemoCodec.availableFrame(client.inBuffer) == -1) break; // Wait for the rest
+                client.nMemosIn++;
+                final Memo memo = MemoPool.acquire();
+                try {
+                    MemoCodec.decode(client.inBuffer, memo);
+                } catch (IllegalStateException e) { // Malformed frame (skipped), the stream goes on
+                    Logs.d(TAG, "Dropped frame from", client.id, e.getMessage());
+                    MemoPool.release(memo);
+                    continue;
+                }
+                dispatch(client, memo);
+            } else {
+                readChar(client);
+            }
+        }
+        client.inBuffer.compact();
+    }
+
+    /**
+     * Receive the available datagrams (one binary frame per datagram)
+     */
+    private void receive() {
+        final String TAG = NAME + "receive";
+
+        try {
+            SocketAddress sender;
+            while ((sender = udpChannel.receive(udpBuffer)) != null) {
+                final long arrivalNs = System.nanoTime();
+                udpBuffer.flip();
+                if (capture != null) {
+                    final int senderId = udpIds.computeIfAbsent(sender, k -> udpIds.size() + 1);
+                    capture(SessionCapture.UDP, senderId, arrivalNs, udpBuffer);
+                }
+                handleDatagram(sender, udpTrackers, udpBuffer, arrivalNs);
+                udpBuffer.clear();
+            }
+        } catch (IOException e) {
+            System.out.println("Error in receiving from Moose");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Decode and dispatch a datagram
+     * Only SCROLL (and SCROLL_BATCH) memos are accepted, older ones (by seq) are dropped
+     * @param sender Address of the sender
+     * @param trackers Seq trackers (per sender)
+     * @param buffer Datagram (in read mode)
+     * @param arrivalNs Arrival time (nanoTime)
+     */
+    private void handleDatagram(SocketAddress sender, Map<SocketAddress, SeqTracker> trackers,
+                                ByteBuffer buffer, long arrivalNs) {
+        final String TAG = NAME + "handleDatagram";
+
+        final Memo memo = MemoPool.acquire();
+        try {
+            if (MemoCodec.availableFrame(buffer) == buffer.remaining()) {
+                MemoCodec.decode(buffer, memo);
+                final SeqTracker tracker = trackers.computeIfAbsent(sender, k -> new SeqTracker());
+
+                if (isScroll(memo) && tracker.accept(memo.getSeq())) {
+                    memo.setArrivalNs(arrivalNs);
+                    final Client client = findClient(sender);
+                    if (client != null) {
+                        memo.setSourceId(client.id); // Credits go back over its TCP connection
+                        client.health.onMemo(arrivalNs / 1_000_000, true);
+                        if (client.clockSync.isSynced()) {
+                            memo.setSenderOffsetMs(client.clockSync.getOffsetAtMooseTime(memo.getTimestamp()));
+                        }
+                    }
+                    getScrollSink().scroll(memo);
+                }
+            } else {
+                Logs.d(TAG, "Incomplete datagram from", sender);
+            }
+        } catch (IllegalStateException e) {
+            Logs.d(TAG, "Invalid datagram from", sender, e.getMessage());
+        } catch (RuntimeException e) { // Datagram dropped, the server goes on
+            Logs.d(TAG, "Error in handling a datagram from", sender, e.toString());
+            e.printStackTrace();
+        } finally {
+            MemoPool.release(memo); // Controller doesn't keep it
+        }
+    }
+
+    /**
+     * Write read bytes to the capture file (stops capturing on error)
+     * @param source SessionCapture.TCP or UDP
+     * @param id Client/sender id
+     * @param arrivalNs Arrival time (nanoTime)
+     * @param bytes Bytes (position -> limit, not changed)
+     */
+    private void capture(byte source, int id, long arrivalNs, ByteBuffer bytes) {
+        final String TAG = NAME + "capture";
+
+        final SessionCapture currentCapture = capture;
+        if (currentCapture == null) return;
+
+        try {
+            synchronized (currentCapture) {
+                currentCapture.write(source, id, arrivalNs, bytes);
+            }
+        } catch (IOException e) {
+            Logs.d(TAG, "Capture failed, stopped");
+            stopCapture();
+        }
+    }
+
+    /**
+     * Wait until a time (park, then spin the last part)
+     * @param deadline Time (nanoTime)
+     */
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 100_000) LockSupport.parkNanos(remaining - 60_000);
+            else Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Read one char of the text protocol (memos are ASCII, one per line)
+     * @param client Client
+     * @throws IllegalStateException if the line is longer than MAX_LINE_LENGTH
+     */
+    private void readChar(Client client) {
+        final char c = (char) client.inBuffer.get();
+        if (c == '\n') {
+            if (client.lineSB.length() > 0) {
+                client.nMemosIn++;
+                final Memo memo = MemoPool.acquire();
+                MemoParser.parse(client.lineSB, memo); // No String for the line
+                client.lineSB.setLength(0);
+                dispatch(client, memo);
+            }
+        } else if (c != '\r') {
+            if (client.lineSB.length() >= MAX_LINE_LENGTH) { // No line break in sight
+                client.lineSB.setLength(0);
+                throw new IllegalStateException("Text line longer than " + MAX_LINE_LENGTH);
+            }
+            client.lineSB.append(c);
+        }
+    }
+
+    /**
+     * Negotiate the protocol with a client
+     * The reply is sent in the current protocol, then both sides switch (see drainOutQueue)
+     * A client that negotiates (binary or text) supports the credits, clock probes and keep-alive intervals,
+     * its budget of in-flight SCROLL samples comes before the reply
+     * @param client Client
+     * @param memo CONNECTION,PROTOCOL,{BIN|TEXT},version
+     */
+    private void negotiateProtocol(Client client, Memo memo) {
+        final String TAG = NAME + "negotiateProtocol";
+
+        // The next frames of the buffer may already be in the new protocol
+        final boolean toBinary = memo.getValue1().equals(BIN) && MemoCodec.isSupported(memo.getValue2Int());
+        client.binaryIn = toBinary;
+
+        if (!client.negotiated) {
+            client.negotiated = true;
+            if (client.channel != null) send(client, FlowControl.get().grant(client.id)); // Not for replayed ones
+        }
+
+        restartUdpTrackers(client); // New session of the Moose
+        send(client, new Memo(CONNECTION, PROTOCOL, toBinary ? BIN : TEXT, MemoCodec.VERSION));
+
+        Logs.d(TAG, client.id, toBinary ? BIN : TEXT);
+    }
+
+    /**
+     * Drain all the pending memos into the clients' buffers, then write each buffer once
+     * (called only by the selector thread)
+     */
+    private void drainOutQueue() {
+        final String TAG = NAME + "drainOutQueue";
+
+        wakeupPending.set(false);
+        outQueue.drainTo(drainList);
+        final int batchSize = drainList.size();
+        if (batchSize == 0) return;
+
+        for (Outgoing out : drainList) {
+            byte[] textBytes = null;
+            byte[] textSeqBytes = null;
+            ByteBuffer binBytes = null;
+
+            // Number the broadcast memos and keep them for replay (also with no clients: nothing written)
+            if (out.client == null) {
+                outSeq++;
+                out.memo.setSeq(outSeq);
+                replayRing[outSeq % REPLAY_CAPACITY] = out.memo;
+            }
+
+            for (Client client : clients.values()) {
+                if (out.client != null && out.client != client) continue;
+                if (!client.negotiated && isNegotiatedOnly(out.memo)) continue; // Legacy client
+
+                // Encode once per protocol
+                if (client.binaryOut) {
+                    if (binBytes == null) binBytes = MemoCodec.encode(out.memo);
+                    ensureOutCapacity(client, binBytes.remaining());
+                    client.outBuffer.put(binBytes.duplicate());
+                } else if (client.resumable) {
+                    if (textSeqBytes == null) textSeqBytes = (out.memo.toString(true) + "\n").getBytes(StandardCharsets.UTF_8);
+                    ensureOutCapacity(client, textSeqBytes.length);
+                    client.outBuffer.put(textSeqBytes);
+                } else {
+                    if (textBytes == null) textBytes = (out.memo.toString(false) + "\n").getBytes(StandardCharsets.UTF_8);
+                    ensureOutCapacity(client, textBytes.length);
+                    client.outBuffer.put(textBytes);
+                }
+                client.nMemosOut++;
+
+                // Protocol reply is the last memo in the old format
+                if (out.client != null && out.memo.getModeType() == Memo.MODE.PROTOCOL) client.binaryOut = out.memo.getValue1().equals(BIN);
+            }
+        }
+        drainList.clear();
+
+        // Stats
+        nDrains++;
+        nDrainedMemos += batchSize;
+        maxDrainBatch = Math.max(maxDrainBatch, batchSize);
+        Logs.d(TAG, "Drained", batchSize);
+
+        // One write (flush) per client
+        for (Client client : clients.values()) {
+            if (client.outBuffer.position() > 0) write(client);
+        }
+    }
+
+    /**
+     * Make sure a client's out buffer has room for more bytes
+     * @param client Client
+     * @param nBytes Number of bytes to put
+     */
+    private void ensureOutCapacity(Client client, int nBytes) {
+        if (client.outBuffer.remaining() >= nBytes) return;
+
+        final int newCapacity = Math.max(client.outBuffer.capacity() * 2, client.outBuffer.position() + nBytes);
+        final ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
+        client.outBuffer.flip();
+        newBuffer.put(client.outBuffer);
+        client.outBuffer = newBuffer;
+    }
+
+    /**
+     * Write the pending bytes to a client
+     * @param client Client
+     */
+    private void write(Client client) {
+        final String TAG = NAME + "write";
+
+        try {
+            client.outBuffer.flip();
+            client.nBytesOut += client.channel.write(client.outBuffer);
+            client.outBuffer.compact();
+
+            final int nPending = client.outBuffer.position();
+            if (nPending > MAX_OUT_PENDING) {
+                Logs.d(TAG, "Client is not reading, dropped", client.id, nPending);
+                close(client);
+                return;
+            }
+
+            // Socket buffer is full -> wait for OP_WRITE
+            final SelectionKey key = client.channel.keyFor(selector);
+            if (key != null && key.isValid()) {
+                key.interestOps(nPending == 0
+                        ? SelectionKey.OP_READ
+                        : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            System.out.println("Error in writing to Moose");
+            close(client);
+        }
+    }
+
+    /**
+     * Close a client's connection
+     * @param client Client
+     */
+    private void close(Client client) {
+        final String TAG = NAME + "close";
+
+        if (clients.remove(client.channel) == null) return; // Already closed
+        nConnections.decrementAndGet();
+        FlowControl.get().close(client.id);
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        Logs.d(TAG, client.getStats(), "Connections: " + nConnections.get());
+    }
+
+    /**
+     * Resume a client's session: replay the broadcast memos it missed while disconnected
+     * Only memos from before this connection are replayed (later ones are sent live), so the
+     * reply CONNECTION,RESUME,from,to comes first and the Moose should apply the memos in seq order
+     * If from > lastSeq + 1, some memos were too old to be kept
+     * @param client Client
+     * @param memo CONNECTION,RESUME,last seq received by the client
+     */
+    private void resume(Client client, Memo memo) {
+        final String TAG = NAME + "resume";
+
+        client.resumable = true;
+
+        final int lastSeq = memo.getValue1Int();
+        final int oldestSeq = Math.max(1, outSeq - REPLAY_CAPACITY + 1);
+        final int fromSeq = Math.max(lastSeq + 1, oldestSeq);
+        final int toSeq = client.firstSeq - 1;
+
+        send(client, new Memo(CONNECTION, RESUME, fromSeq, toSeq));
+        for (int seq = fromSeq; seq <= toSeq; seq++) {
+            send(client, replayRing[seq % REPLAY_CAPACITY]);
+        }
+
+        Logs.d(TAG, client.id, "Replayed", fromSeq, toSeq);
+    }
+
+    /**
+     * Add a clock sync round trip (runs on the selector thread, O(window))
+     * @param client Client
+     * @param memo CONNECTION,SYNC,desktop send time,Moose time
+     */
+    private void syncClock(Client client, Memo memo) {
+        final String TAG = NAME + "syncClock";
+        if (client.channel == null) return; // Replayed: the round trip was in another session
+
+        final long t3 = Utils.nowInMillis();
+        final long t0 = (long) memo.getValue1Double();
+        final long tm = (long) memo.getValue2Double();
+
+        client.health.addRtt(t3 - t0);
+        if (client.clockSync.addSample(t0, tm, t3)) {
+            final Logger.SyncInfo syncInfo = new Logger.SyncInfo();
+            syncInfo.clientId = client.id;
+            syncInfo.rtt = client.clockSync.getLastRtt();
+            syncInfo.offset = client.clockSync.getOffset();
+            syncInfo.driftPpm = client.clockSync.getDriftPpm();
+            syncInfo.moment = t3;
+            Logger.get().logSyncInfo(syncInfo);
+        }
+
+        Logs.d(TAG, client.id, client.clockSync);
+    }
+
+    /**
+     * Restart the seq tracking of the UDP senders on a client's host (the Moose numbers from 1 again)
+     * @param client Client
+     */
+    private void restartUdpTrackers(Client client) {
+        if (client.channel == null) return; // Replayed or shared-ring client (no UDP)
+
+        final InetAddress host = client.channel.socket().getInetAddress();
+        udpTrackers.forEach((address, tracker) -> {
+            if (address instanceof InetSocketAddress && host.equals(((InetSocketAddress) address).getAddress())) {
+                tracker.restart();
+            }
+        });
+    }
+
+    /**
+     * Get the TCP client on a host (for the UDP memos)
+     * @param address Address of the UDP sender
+     * @return Client (null if no client on that host)
+     */
+    private Client findClient(SocketAddress address) {
+        if (!(address instanceof InetSocketAddress)) return null;
+
+        final InetAddress host = ((InetSocketAddress) address).getAddress();
+        if (host == null) return null; // Unresolved (replayed sender)
+        for (Client client : clients.values()) {
+            if (client.channel.socket().getInetAddress().equals(host)) return client;
+        }
+
+        return null;
+    }
+
+    /**
+     * Check the health of all the connections (on the selector thread)
+     * Stalled -> probe with SYNC, silent for CONNECTION_TIMEOUT -> closed (only the negotiated clients, legacy
+     * clients may never send keep-alives)
+     * The keep-alive interval is sent to the Moose (CONFIG,KEEP_ALIVE,ms) when it changes
+     * @param nowMs Time (ms, monotonic)
+     */
+    private void checkHealth(long nowMs) {
+        final String TAG = NAME + "checkHealth";
+
+        for (Client client : clients.values()) {
+            final ConnectionHealth health = client.health;
+
+            if (client.negotiated && health.getSilenceMs(nowMs) > CONNECTION_TIMEOUT) { // Legacy: no keep-alives
+                Logs.d(TAG, "Connection timed out", client.id);
+                logHealth(client, nowMs);
+                close(client);
+                continue;
+            }
+
+            final boolean changed = health.check(nowMs);
+            if (changed) {
+                Logs.d(TAG, client.id, health);
+                if (health.getState() == ConnectionHealth.STATE.STALLED) {
+                    send(client, new Memo(CONNECTION, SYNC, Utils.nowInMillis())); // Probe
+                }
+            }
+
+            final int keepAliveMs = health.updateKeepAlive();
+            if (keepAliveMs > 0) send(client, new Memo(CONFIG, KEEP_ALIVE, keepAliveMs, 0));
+
+            if (changed || nowMs - client.lastHealthLogMs >= HEALTH_LOG_MS) logHealth(client, nowMs);
+        }
+    }
+
+    /**
+     * Log the health of a connection (with the current block/trial, if any)
+     * @param client Client
+     * @param nowMs Time (ms, monotonic)
+     */
+    private void logHealth(Client client, long nowMs) {
+        final String TAG = NAME + "logHealth";
+        final ConnectionHealth health = client.health;
+
+        final Logger.HealthInfo healthInfo = new Logger.HealthInfo();
+        healthInfo.clientId = client.id;
+        healthInfo.state = health.getState();
+        healthInfo.srtt = health.getSRtt();
+        healthInfo.jitter = health.getJitter();
+        healthInfo.keepAlive = health.getKeepAliveMs();
+        healthInfo.maxScrollGap = health.getMaxScrollGapMs();
+        healthInfo.nStalls = health.getNStalls();
+        health.resetMaxScrollGap();
+        client.lastHealthLogMs = nowMs;
+
+        try { // The selector thread never fails for the logs
+            if (!GraphicsEnvironment.isHeadless()) {
+                final Logger.GeneralInfo genInfo = ExperimentFrame.get().getGenInfo();
+                if (genInfo != null) {
+                    healthInfo.blockNum = genInfo.blockNum;
+                    healthInfo.trialNum = genInfo.trialNum;
+                }
+            }
+            healthInfo.moment = Utils.nowInMillis();
+            Logger.get().logHealthInfo(healthInfo);
+        } catch (RuntimeException e) {
+            Logs.d(TAG, "Couldn't log the health", client.id, e.toString());
+        }
+    }
+
+    /**
+     * Get the monotonic time
+     * @return Time (ms)
+     */
+    private static long nowMs() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * Route a memo received from a client (SCROLL memos go back to the MemoPool after)
+     * @param client Client
+     * @param memo Memo
+     */
+    private void dispatch(Client client, Memo memo) {
+        final String TAG = NAME + "dispatch";
+
+        Logs.d(TAG, client.id, memo);
+        memo.setArrivalNs(client.lastReadNs);
+        if (client.channel != null) memo.setSourceId(client.id); // Replayed/shared-ring: no credits
+        client.health.onMemo(client.lastReadNs / 1_000_000, isScroll(memo));
+
+        final MemoHandler handler = actionHandlers.get(memo.getActionType());
+        if (handler == null) return;
+        try {
+            handler.handle(client, memo);
+        } catch (RuntimeException e) { // Memo dropped, the next ones are handled
+            Logs.d(TAG, "Error in handling", memo, e.toString());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Get where the SCROLL memos go
+     * @return ScrollSink
+     */
+    private ScrollSink getScrollSink() {
+        final ScrollSink sink = scrollSink;
+        return sink != null ? sink : Controller.get();
+    }
+
+    /**
+     * Is it a SCROLL, SCROLL_BATCH or FLING memo?
+     * @param memo Memo
+     * @return True/false
+     */
+    private static boolean isScroll(Memo memo) {
+        final Memo.ACTION action = memo.getActionType();
+        return action == Memo.ACTION.SCROLL || action == Memo.ACTION.SCROLL_BATCH || action == Memo.ACTION.FLING;
+    }
+
+    /**
+     * Is it a memo only for the clients that negotiated the protocol? (legacy clients don't know them)
+     * @param memo Memo
+     * @return True for CONFIG,CREDIT, CONFIG,KEEP_ALIVE and CONNECTION,SYNC
+     */
+    private static boolean isNegotiatedOnly(Memo memo) {
+        final Memo.MODE mode = memo.getModeType();
+        return memo.getActionType() == Memo.ACTION.CONFIG ? mode == Memo.MODE.CREDIT || mode == Memo.MODE.KEEP_ALIVE
+                : memo.getActionType() == Memo.ACTION.CONNECTION && mode == Memo.MODE.SYNC;
+    }
+
+    /**
+     * Pass a SCROLL (or SCROLL_BATCH, FLING) memo to the Controller (then back to the MemoPool)
+     * @param client Client
+     * @param memo SCROLL memo
+     */
+    private void scroll(Client client, Memo memo) {
+        if (client.clockSync.isSynced()) {
+            memo.setSenderOffsetMs(client.clockSync.getOffsetAtMooseTime(memo.getTimestamp()));
+        }
+        getScrollSink().scroll(memo);
+        MemoPool.release(memo); // Controller doesn't keep it (other memos may be queued, e.g. echoes)
+    }
+
+    /**
+     * Answer a keep-alive
+     * @param client Client
+     * @param memo CONNECTION,KEEP_ALIVE memo
+     */
+    private void keepAlive(Client client, Memo memo) {
+        send(client, memo); // Send back the message (as confimation)
+        send(client, new Memo(CONNECTION, SYNC, Utils.nowInMillis())); // Clock probe (negotiated clients only)
     }
 
 }
@@ -0,0 +1,128 @@
+package control;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Capture file of the inbound bytes of the Server (for replay, see Server.replay)
+ * Header: int magic | byte version
+ * Record: byte source (TCP/UDP) | short client id | long arrival (ns since the start) | short length | bytes
+ * Records are exactly what was read from the socket (TCP chunks are not split into memos)
+ */
+public class SessionCapture implements Closeable {
+    private final static String NAME = "SessionCapture/";
+    // -------------------------------------------------------------------------------------------
+    private static final int MAGIC = 0x4D434150; // "MCAP"
+    private static final byte VERSION = 1;
+
+    public static final byte TCP = 0;
+    public static final byte UDP = 1;
+
+    private final DataOutputStream mOutStream;
+    private final long mStartNs;
+    private final byte[] mChunk = new byte[0xFFFF]; // Max record length
+    private long mNRecords;
+    private long mNBytes;
+
+    // -------------------------------------------------------------------------------------------
+
+    // One captured chunk
+    public static class Record {
+        public byte source;
+        public int clientId;
+        public long arrivalNs; // Since the start of the capture
+        public ByteBuffer bytes;
+    }
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Create a capture file
+     * @param file File (overwritten)
+     */
+    public SessionCapture(File file) throws IOException {
+        mOutStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        mOutStream.writeInt(MAGIC);
+        mOutStream.writeByte(VERSION);
+        mStartNs = System.nanoTime();
+    }
+
+    /**
+     * Write the bytes read from a socket (on the selector thread, buffered)
+     * @param source TCP or UDP
+     * @param clientId Id of the client (UDP: id of the sender)
+     * @param arrivalNs Arrival time (nanoTime)
+     * @param src Buffer (the bytes between position and limit are written, position is not changed)
+     */
+    public void write(byte source, int clientId, long arrivalNs, ByteBuffer src) throws IOException {
+        final ByteBuffer bytes = src.duplicate();
+        while (bytes.hasRemaining()) { // Longer chunks are split (never happens with the server's buffers)
+            final int length = Math.min(bytes.remaining(), mChunk.length);
+            bytes.get(mChunk, 0, length);
+
+            mOutStream.writeByte(source);
+            mOutStream.writeShort(clientId);
+            mOutStream.writeLong(arrivalNs - mStartNs);
+            mOutStream.writeShort(length);
+            mOutStream.write(mChunk, 0, length);
+
+            mNRecords++;
+            mNBytes += length;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOutStream.close();
+    }
+
+    @Override
+    public String toString() {
+        return "records: " + mNRecords + " | bytes: " + mNBytes;
+    }
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Reader of a capture file
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream mInStream;
+
+        /**
+         * Open a capture file
+         * @param file File
+         */
+        public Reader(File file) throws IOException {
+            mInStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            if (mInStream.readInt() != MAGIC || mInStream.readByte() != VERSION) {
+                mInStream.close();
+                throw new IOException("Not a capture file (or unknown version): " + file);
+            }
+        }
+
+        /**
+         * Read the next record
+         * @return Record (new) or null at the end of the file
+         */
+        public Record next() throws IOException {
+            final int source = mInStream.read();
+            if (source == -1) return null;
+
+            final Record record = new Record();
+            record.source = (byte) source;
+            record.clientId = mInStream.readUnsignedShort();
+            record.arrivalNs = mInStream.readLong();
+            final byte[] bytes = new byte[mInStream.readUnsignedShort()];
+            mInStream.readFully(bytes);
+            record.bytes = ByteBuffer.wrap(bytes);
+
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInStream.close();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package control;
+
+import data.Memo;
+import data.MemoCodec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Single-producer/single-consumer ring of Memo frames in a memory-mapped file
+ * (for a Moose bridge on the same machine, instead of the TCP stack)
+ * Frames are the MemoCodec frames, 8-byte aligned and never split: if a frame doesn't fit before the end,
+ * a padding marker is written and the frame starts at the beginning
+ * The producer publishes with a release-store of the write counter, the consumer frees with the read counter
+ *
+ * Layout: int magic | int capacity | ... | long write counter (@64) | ... | long read counter (@128) | data (@192)
+ */
+public class SharedRing implements Closeable {
+    private final static String NAME = "SharedRing/";
+    // -------------------------------------------------------------------------------------------
+    private static final int MAGIC = 0x4D52494E; // "MRIN"
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int WRITE_OFFSET = 64; // Counters on their own cache lines
+    private static final int READ_OFFSET = 128;
+    private static final int DATA_OFFSET = 192;
+    private static final int ALIGN = 8;
+    private static final int PADDING = -1; // Length field of a padding marker (rest of the ring is skipped)
+
+    public static final int DEFAULT_CAPACITY = 1 << 20; // bytes
+
+    private static final VarHandle LONG_VIEW =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mMap;
+    private final ByteBuffer mData; // Data region (big-endian, like the frames)
+    private final ByteBuffer mWriteView; // Producer's view of mData
+    private final ByteBuffer mReadView; // Consumer's view of mData
+    private final int mCapacity;
+    private final ByteBuffer mEncodeBuffer = ByteBuffer.allocate(MemoCodec.MAX_FRAME_SIZE); // Producer only
+
+    // Local copies of the counters (each side only writes its own)
+    private long mWriteCount;
+    private long mReadCount;
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Create (or reset) a ring file
+     * @param file File
+     * @param capacity Data capacity in bytes (power of two)
+     * @return SharedRing
+     */
+    public static SharedRing create(File file, int capacity) throws IOException {
+        if (Integer.bitCount(capacity) != 1 || capacity < MemoCodec.MAX_FRAME_SIZE * 2) {
+            throw new IllegalArgumentException("Capacity must be a power of two >= " + MemoCodec.MAX_FRAME_SIZE * 2);
+        }
+
+        final SharedRing ring = new SharedRing(file, DATA_OFFSET + capacity);
+        LONG_VIEW.setRelease(ring.mMap, WRITE_OFFSET, 0L);
+        LONG_VIEW.setRelease(ring.mMap, READ_OFFSET, 0L);
+        ring.mMap.putInt(CAPACITY_OFFSET, capacity);
+        ring.mMap.putInt(0, MAGIC);
+        return ring;
+    }
+
+    /**
+     * Open an existing ring file (created by the other side)
+     * @param file File
+     * @return SharedRing
+     */
+    public static SharedRing open(File file) throws IOException {
+        return new SharedRing(file, -1);
+    }
+
+    /**
+     * Constructor
+     * @param file File
+     * @param size Size of the file in bytes (-1 -> existing file)
+     */
+    private SharedRing(File file, int size) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        if (size > 0) mFile.setLength(size);
+        else if (mFile.length() < DATA_OFFSET) throw new IOException("Not a ring file: " + file);
+
+        mMap = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mFile.length());
+        mMap.order(ByteOrder.nativeOrder());
+
+        if (size < 0 && mMap.getInt(0) != MAGIC) throw new IOException("Not a ring file: " + file);
+        mCapacity = size > 0 ? size - DATA_OFFSET : mMap.getInt(CAPACITY_OFFSET);
+
+        mData = mMap.duplicate().position(DATA_OFFSET).slice().order(ByteOrder.BIG_ENDIAN);
+        mWriteView = mData.duplicate();
+        mReadView = mData.duplicate();
+        mWriteCount = (long) LONG_VIEW.getAcquire(mMap, WRITE_OFFSET);
+        mReadCount = (long) LONG_VIEW.getAcquire(mMap, READ_OFFSET);
+    }
+
+    /**
+     * Put a memo in the ring (producer side)
+     * @param memo Memo
+     * @return False if the ring is full (the consumer is behind)
+     */
+    public boolean offer(Memo memo) {
+        mEncodeBuffer.clear();
+        MemoCodec.encode(memo, mEncodeBuffer);
+        mEncodeBuffer.flip();
+
+        final int frameSize = align(mEncodeBuffer.remaining());
+        int index = (int) (mWriteCount & (mCapacity - 1));
+        final int toEnd = mCapacity - index;
+        final int needed = frameSize <= toEnd ? frameSize : toEnd + frameSize; // Padding to the end first
+
+        final long readCount = (long) LONG_VIEW.getAcquire(mMap, READ_OFFSET);
+        if (mWriteCount + needed - readCount > mCapacity) return false;
+
+        if (frameSize > toEnd) {
+            mData.putInt(index, PADDING);
+            mWriteCount += toEnd;
+            index = 0;
+        }
+        mWriteView.position(index);
+        mWriteView.put(mEncodeBuffer);
+        mWriteCount += frameSize;
+
+        LONG_VIEW.setRelease(mMap, WRITE_OFFSET, mWriteCount); // Publish
+        return true;
+    }
+
+    /**
+     * Take the next memo (consumer side)
+     * @return Memo or null if the ring is empty
+     */
+    public Memo poll() {
+        final Memo memo = new Memo();
+        return poll(memo) ? memo : null;
+    }
+
+    /**
+     * Take the next memo into a Memo (consumer side, no allocation)
+     * A malformed frame is skipped (a corrupt length skips all that's written so far)
+     * @param dst Memo to fill
+     * @return False if the ring is empty
+     * @throws IllegalStateException if the frame is malformed (the ring can still be polled)
+     */
+    public boolean poll(Memo dst) {
+        final long writeCount = (long) LONG_VIEW.getAcquire(mMap, WRITE_OFFSET);
+        if (mReadCount == writeCount) return false;
+
+        int index = (int) (mReadCount & (mCapacity - 1));
+        if (mData.getInt(index) == PADDING) {
+            mReadCount += mCapacity - index;
+            index = 0;
+        }
+
+        mReadView.limit(mCapacity).position(index);
+        final int frameSize;
+        try {
+            frameSize = MemoCodec.availableFrame(mReadView);
+            if (frameSize == -1) throw new IllegalStateException("Frame past the end of the ring");
+        } catch (IllegalStateException e) { // Next frames can't be found -> drop what's written
+            mReadCount = writeCount;
+            LONG_VIEW.setRelease(mMap, READ_OFFSET, mReadCount);
+            throw e;
+        }
+
+        try {
+            MemoCodec.decode(mReadView, dst);
+        } finally {
+            mReadCount += align(frameSize);
+            LONG_VIEW.setRelease(mMap, READ_OFFSET, mReadCount); // Free the space
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of bytes waiting to be read
+     * @return Number of bytes
+     */
+    public long getNPendingBytes() {
+        return (long) LONG_VIEW.getAcquire(mMap, WRITE_OFFSET) - (long) LONG_VIEW.getAcquire(mMap, READ_OFFSET);
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close(); // The mapping is released with the buffer
+    }
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Round a size up to the alignment
+     * @param size Size in bytes
+     * @return Aligned size
+     */
+    private static int align(int size) {
+        return (size + ALIGN - 1) & -ALIGN;
+    }
+}
@@ -0,0 +1,115 @@
+package control;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Transfer function (input amount -> output amount), precomputed into a lookup table
+ * The table covers the magnitudes [0, maxInput] (N_ENTRIES points, linear interpolation), beyond it the curve
+ * continues with the slope of its last segment. The sign of the input is kept
+ * Immutable (a new curve replaces the old one as a whole, see TransferFunctions)
+ */
+public class TransferFunction {
+    private final static String NAME = "TransferFunction/";
+    // -------------------------------------------------------------------------------------------
+    private static final int N_ENTRIES = 1024;
+
+    public enum CURVE {
+        LINEAR, // y = gain * x
+        POWER, // y = gain * x^exponent
+        SIGMOID // y = g(x) * x, g goes from minGain to maxGain around the inflection (logistic)
+    }
+
+    private final CURVE mCurve;
+    private final String mParams; // For toString
+    private final double mMaxInput;
+    private final double mScale; // Index per input unit
+    private final double[] mTable;
+    private final double mTailSlope; // Beyond maxInput
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Linear curve
+     * @param gain Gain
+     * @return TransferFunction
+     */
+    public static TransferFunction linear(double gain) {
+        return new TransferFunction(CURVE.LINEAR, "gain=" + gain, 1, x -> gain * x);
+    }
+
+    /**
+     * Power-law curve
+     * @param gain Gain
+     * @param exponent Exponent (> 1 -> slow movements are finer)
+     * @param maxInput End of the table (magnitude of the largest common input)
+     * @return TransferFunction
+     */
+    public static TransferFunction power(double gain, double exponent, double maxInput) {
+        return new TransferFunction(CURVE.POWER, "gain=" + gain + " exp=" + exponent, maxInput,
+                x -> gain * Math.pow(x, exponent));
+    }
+
+    /**
+     * Sigmoid curve (the gain goes up with the input)
+     * @param minGain Gain of the small inputs
+     * @param maxGain Gain of the large inputs
+     * @param inflection Input of the halfway gain
+     * @param width Input range of the transition (~ 1/4 of it)
+     * @param maxInput End of the table
+     * @return TransferFunction
+     */
+    public static TransferFunction sigmoid(double minGain, double maxGain, double inflection, double width,
+                                           double maxInput) {
+        final String params = String.format("gain=%s..%s infl=%s width=%s", minGain, maxGain, inflection, width);
+        return new TransferFunction(CURVE.SIGMOID, params, maxInput,
+                x -> (minGain + (maxGain - minGain) / (1 + Math.exp(-(x - inflection) / width))) * x);
+    }
+
+    /**
+     * Constructor (samples the curve)
+     * @param curve Curve type
+     * @param params Parameters (for toString)
+     * @param maxInput End of the table (> 0)
+     * @param fn Curve on the magnitudes
+     */
+    private TransferFunction(CURVE curve, String params, double maxInput, DoubleUnaryOperator fn) {
+        if (!(maxInput > 0)) throw new IllegalArgumentException("maxInput must be > 0: " + maxInput);
+
+        mCurve = curve;
+        mParams = params;
+        mMaxInput = maxInput;
+        mScale = (N_ENTRIES - 1) / maxInput;
+        mTable = new double[N_ENTRIES];
+        for (int i = 0; i < N_ENTRIES; i++) mTable[i] = fn.applyAsDouble(i / mScale);
+        mTailSlope = (mTable[N_ENTRIES - 1] - mTable[N_ENTRIES - 2]) * mScale;
+    }
+
+    /**
+     * Apply the curve (a table read)
+     * @param x Input
+     * @return Output
+     */
+    public double apply(double x) {
+        final double mag = Math.abs(x);
+        final double pos = mag * mScale;
+
+        final double y;
+        if (pos >= N_ENTRIES - 1) {
+            y = mTable[N_ENTRIES - 1] + (mag - mMaxInput) * mTailSlope;
+        } else {
+            final int i = (int) pos;
+            y = mTable[i] + (pos - i) * (mTable[i + 1] - mTable[i]);
+        }
+
+        return x < 0 ? -y : y;
+    }
+
+    public CURVE getCurve() {
+        return mCurve;
+    }
+
+    @Override
+    public String toString() {
+        return mCurve + " (" + mParams + ", table 0.." + mMaxInput + ")";
+    }
+}
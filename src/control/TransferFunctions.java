@@ -0,0 +1,83 @@
+package control;
+
+import experiment.Experiment;
+import experiment.Experiment.TECHNIQUE;
+import tools.Logs;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Transfer-function stage (per technique) between the decoded Memos and the scrolling
+ * Curves are swapped at runtime, from any thread, without stopping the stream: each sample reads the current one
+ * Defaults keep the amounts as sent (the Moose applies its own gains), the mouse wheel gets Experiment.MOUSE_GAIN
+ */
+public class TransferFunctions {
+    private final static String NAME = "TransferFunctions/";
+    // -------------------------------------------------------------------------------------------
+    private static final TransferFunctions self = new TransferFunctions(); // Singleton (eager: used from several threads)
+
+    // Filled once (only the references change)
+    private final Map<TECHNIQUE, AtomicReference<TransferFunction>> mFunctions = new EnumMap<>(TECHNIQUE.class);
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Get the instance
+     * @return Singleton instance
+     */
+    public static TransferFunctions get() {
+        return self;
+    }
+
+    /**
+     * Constructor
+     */
+    private TransferFunctions() {
+        for (TECHNIQUE tech : TECHNIQUE.values()) {
+            mFunctions.put(tech, new AtomicReference<>(getDefault(tech)));
+        }
+    }
+
+    /**
+     * Get the default function of a technique
+     * @param tech TECHNIQUE
+     * @return TransferFunction
+     */
+    public static TransferFunction getDefault(TECHNIQUE tech) {
+        return TransferFunction.linear(tech == TECHNIQUE.MOUSE ? Experiment.MOUSE_GAIN : 1);
+    }
+
+    /**
+     * Apply the current function of a technique
+     * @param tech TECHNIQUE
+     * @param x Input amount
+     * @return Output amount
+     */
+    public double apply(TECHNIQUE tech, double x) {
+        return mFunctions.get(tech).get().apply(x);
+    }
+
+    /**
+     * Get the current function of a technique (e.g. to apply it to all the samples of a batch)
+     * @param tech TECHNIQUE
+     * @return TransferFunction
+     */
+    public TransferFunction getFunction(TECHNIQUE tech) {
+        return mFunctions.get(tech).get();
+    }
+
+    /**
+     * Swap the function of a technique (the next sample uses it)
+     * @param tech TECHNIQUE
+     * @param function TransferFunction (null -> default)
+     */
+    public void setFunction(TECHNIQUE tech, TransferFunction function) {
+        final String TAG = NAME + "setFunction";
+
+        final TransferFunction newFunction = function != null ? function : getDefault(tech);
+        mFunctions.get(tech).set(newFunction);
+        Logs.d(TAG, tech, newFunction);
+    }
+}
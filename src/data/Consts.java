@@ -181,6 +181,14 @@ public class Consts {
         public final static String MISS = "MISS";
         public final static String TASK_END = "TECH_END";
         public final static String GENINFO = "GENINFO";
+        public final static String PROTOCOL = "PROTOCOL";
+        public final static String BIN = "BIN";
+        public final static String TEXT = "TEXT";
+        public final static String SYNC = "SYNC";
+        public final static String RESUME = "RESUME";
+        public final static String CREDIT = "CREDIT";
+        public final static String SCROLL_BATCH = "SCROLL_BATCH"; // N timestamped samples in one frame
+        public final static String FLING = "FLING"; // Flick release velocity (the glide is on the desktop)
 
         public final static String DEMO_TITLE =
                 "Welcome to the scrolling experiment!";
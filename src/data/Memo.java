@@ -1,19 +1,106 @@
 package data;
 
-import tools.Logs;
-
-import java.util.Arrays;
+import experiment.Experiment.TECHNIQUE;
 
 import static data.Consts.STRINGS.*;
 
 public class Memo {
     private static final String NAME = "Memo/";
 
+    public static final int MAX_BATCH_SAMPLES = 128; // Samples in one SCROLL_BATCH (fits in one frame)
+
+    // Known actions (names are the wire Strings, see Consts.STRINGS)
+    public enum ACTION {
+        SCROLL, CONFIG, LOG, CONNECTION,
+        SCROLL_BATCH, // Samples in the Memo (see addSample)
+        FLING, // Release velocity of a flick (mm/s)
+        OTHER; // Any other String
+        private static final ACTION[] values = values();
+
+        /**
+         * Get the action of a String
+         * @param str String
+         * @return ACTION (OTHER if not known)
+         */
+        public static ACTION of(String str) {
+            for (ACTION action : values) {
+                if (action.name().equals(str)) return action;
+            }
+
+            return OTHER;
+        }
+    }
+
+    // Known modes (names are the wire Strings, techniques map to their TECHNIQUE)
+    public enum MODE {
+        DRAG(TECHNIQUE.DRAG),
+        RATE_BASED(TECHNIQUE.RATE_BASED),
+        FLICK(TECHNIQUE.FLICK),
+        MOUSE(TECHNIQUE.MOUSE),
+        KEEP_ALIVE, TECH, SENSITIVITY, GAIN, DENOM, COEF, CREDIT,
+        SYNC, RESUME, PROTOCOL, EXPID,
+        OTHER; // Any other String
+        private static final MODE[] values = values();
+
+        private final TECHNIQUE technique;
+
+        MODE() {
+            this(null);
+        }
+
+        MODE(TECHNIQUE technique) {
+            this.technique = technique;
+        }
+
+        /**
+         * Get the technique of this mode
+         * @return TECHNIQUE (null if not a technique)
+         */
+        public TECHNIQUE getTechnique() {
+            return technique;
+        }
+
+        /**
+         * Get the mode of a String
+         * @param str String
+         * @return MODE (OTHER if not known)
+         */
+        public static MODE of(String str) {
+            for (MODE mode : values) {
+                if (mode.name().equals(str)) return mode;
+            }
+
+            return OTHER;
+        }
+    }
+
     private String action;
     private String mode;
+    private ACTION actionType = ACTION.OTHER; // Resolved once (whenever action is set)
+    private MODE modeType = MODE.OTHER; // Resolved once (whenever mode is set)
     private String value1;
     private String value2;
 
+    // Numeric values (when the memo is created from numbers or decoded from a binary frame)
+    private boolean numeric;
+    private double value1D;
+    private double value2D;
+
+    // Samples of a SCROLL_BATCH (arrays are kept when the Memo is reused)
+    private int nSamples;
+    private double[] samplesVt;
+    private double[] samplesHz;
+    private int[] sampleOffsetsUs; // Sample time - timestamp (us)
+
+    private int seq; // Sequence number (0 = not set)
+    private long timestamp; // Sender's timestamp in ms (0 = not set)
+
+    // Local stamps (nanoTime, not sent)
+    private long arrivalNs; // Socket arrival
+    private long dispatchNs; // Controller dispatch
+    private double senderOffsetMs = Double.NaN; // Sender's clock - desktop's clock (NaN = not known)
+    private int sourceId; // Id of the client it came from (0 = none, e.g. replayed: no credits)
+
     /**
      * Constructor
      * @param act Action (e.g. SCROLL)
@@ -22,8 +109,7 @@ public class Memo {
      * @param v2 String value2
      */
     public Memo(String act, String md, String v1, String v2) {
-        action = act;
-        mode = md;
+        setType(act, md);
         value1 = v1;
         value2 = v2;
     }
@@ -36,10 +122,10 @@ public class Memo {
      * @param v2 Double value Movement along Y
      */
     public Memo(String act, String md, double v1, double v2) {
-        action = act;
-        mode = md;
+        setType(act, md);
         value1 = String.valueOf(v1);
         value2 = String.valueOf(v2);
+        setNumeric(v1, v2);
     }
 
     /**
@@ -49,8 +135,7 @@ public class Memo {
      * @param v1 Int value 1
      */
     public Memo(String act, String md, Object v1) {
-        action = act;
-        mode = md;
+        setType(act, md);
         value1 = String.valueOf(v1);
         value2 = "-";
     }
@@ -63,10 +148,10 @@ public class Memo {
      * @param v2 Int value 2
      */
     public Memo(String act, String md, int v1, int v2) {
-        action = act;
-        mode = md;
+        setType(act, md);
         value1 = String.valueOf(v1);
         value2 = String.valueOf(v2);
+        setNumeric(v1, v2);
     }
 
     /**
@@ -77,8 +162,7 @@ public class Memo {
      * @param v2 Int value 2
      */
     public Memo(String act, String md, Object v1, Object v2) {
-        action = act;
-        mode = md;
+        setType(act, md);
         value1 = String.valueOf(v1);
         value2 = String.valueOf(v2);
     }
@@ -87,12 +171,23 @@ public class Memo {
      * Basic consrtuctor
      */
     public Memo() {
-        action = "";
-        mode = "";
+        setType("", "");
         value1 = "";
         value2 = "";
     }
 
+    /**
+     * Create an empty SCROLL_BATCH (samples are added with addSample)
+     * @param md Mode (e.g. DRAG)
+     * @param ts Sender's timestamp of the first sample (ms)
+     * @return Memo
+     */
+    public static Memo newBatch(String md, long ts) {
+        final Memo result = new Memo(SCROLL_BATCH, md, "", "");
+        result.setBatch(ts);
+        return result;
+    }
+
     /**
      * Return action
      * @return String Action
@@ -109,35 +204,204 @@ public class Memo {
         return mode;
     }
 
+    /**
+     * Return the action type
+     * @return ACTION (OTHER if not a known action)
+     */
+    public ACTION getActionType() {
+        return actionType;
+    }
+
+    /**
+     * Return the mode type
+     * @return MODE (OTHER if not a known mode)
+     */
+    public MODE getModeType() {
+        return modeType;
+    }
+
+    /**
+     * Return the technique of the mode
+     * @return TECHNIQUE (null if the mode is not a technique)
+     */
+    public TECHNIQUE getTechnique() {
+        return modeType.getTechnique();
+    }
+
     /**
      * Get the first value
      * @return String
      */
     public String getValue1() {
+        if (value1 == null) value1 = isBatch() ? String.valueOf(nSamples) : String.valueOf(value1D);
         return value1;
     }
 
+    /**
+     * Get the second value
+     * @return String
+     */
+    public String getValue2() {
+        if (value2 == null) value2 = String.valueOf(value2D);
+        return value2;
+    }
+
+    /**
+     * Are the values numbers? (no parsing needed)
+     * @return True/false
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * Is it a SCROLL_BATCH?
+     * @return True/false
+     */
+    public boolean isBatch() {
+        return actionType == ACTION.SCROLL_BATCH;
+    }
+
+    /**
+     * Add a sample to a SCROLL_BATCH
+     * @param vt Vertical movement
+     * @param hz Horizontal movement
+     * @param offsetUs Sample time - timestamp (us)
+     * @return False if the batch is full
+     */
+    public boolean addSample(double vt, double hz, int offsetUs) {
+        if (nSamples == MAX_BATCH_SAMPLES) return false;
+        if (samplesVt == null) {
+            samplesVt = new double[MAX_BATCH_SAMPLES];
+            samplesHz = new double[MAX_BATCH_SAMPLES];
+            sampleOffsetsUs = new int[MAX_BATCH_SAMPLES];
+        }
+
+        samplesVt[nSamples] = vt;
+        samplesHz[nSamples] = hz;
+        sampleOffsetsUs[nSamples] = offsetUs;
+        nSamples++;
+        value1 = null; // Number of samples (created on demand)
+        return true;
+    }
+
+    /**
+     * Get the number of samples (SCROLL_BATCH)
+     * @return Number of samples (0 if not a batch)
+     */
+    public int getNSamples() {
+        return nSamples;
+    }
+
+    public double getSampleVt(int i) {
+        return samplesVt[i];
+    }
+
+    public double getSampleHz(int i) {
+        return samplesHz[i];
+    }
+
+    public int getSampleOffsetUs(int i) {
+        return sampleOffsetsUs[i];
+    }
+
+    /**
+     * Get the sender's time of a sample
+     * @param i Index of the sample
+     * @return Time in ms (sender's clock, 0 if the timestamp is not set)
+     */
+    public double getSampleTimestampMs(int i) {
+        return timestamp == 0 ? 0 : timestamp + sampleOffsetsUs[i] / 1000.0;
+    }
+
+    /**
+     * Get the sequence number
+     * @return Sequence number (0 if not set)
+     */
+    public int getSeq() {
+        return seq;
+    }
+
+    /**
+     * Set the sequence number
+     * @param sq Sequence number
+     */
+    public void setSeq(int sq) {
+        seq = sq;
+    }
+
+    /**
+     * Get the sender's timestamp
+     * @return Timestamp in ms (0 if not set)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Set the sender's timestamp
+     * @param ts Timestamp in ms
+     */
+    public void setTimestamp(long ts) {
+        timestamp = ts;
+    }
+
+    public long getArrivalNs() {
+        return arrivalNs;
+    }
+
+    public void setArrivalNs(long ns) {
+        arrivalNs = ns;
+    }
+
+    public long getDispatchNs() {
+        return dispatchNs;
+    }
+
+    public void setDispatchNs(long ns) {
+        dispatchNs = ns;
+    }
+
+    public double getSenderOffsetMs() {
+        return senderOffsetMs;
+    }
+
+    public void setSenderOffsetMs(double offsetMs) {
+        senderOffsetMs = offsetMs;
+    }
+
+    public int getSourceId() {
+        return sourceId;
+    }
+
+    public void setSourceId(int id) {
+        sourceId = id;
+    }
+
     /**
      * Convert and return the X value
      * @return Int X value
      */
     public int getValue1Int() {
+        if (numeric) return (int) value1D;
         try {
-            return (int) Double.parseDouble(value1);
+            return (int) Double.parseDouble(getValue1()); // (Batch: created on demand)
         } catch (NumberFormatException e) {
             return 0;
         }
     }
 
     public double getValue1Double() {
+        if (numeric) return value1D;
         try {
-            return Double.parseDouble(value1);
+            return Double.parseDouble(getValue1()); // (Batch: created on demand)
         } catch (NumberFormatException e) {
             return 0;
         }
     }
 
     public double getValue2Double() {
+        if (numeric) return value2D;
         try {
             return Double.parseDouble(value2);
         } catch (NumberFormatException e) {
@@ -150,6 +414,7 @@ public class Memo {
      * @return Int Y Value
      */
     public int getValue2Int() {
+        if (numeric) return (int) value2D;
         try {
             return (int) Double.parseDouble(value2);
         } catch (NumberFormatException e) {
@@ -158,30 +423,150 @@ public class Memo {
     }
 
     public boolean isStopMemo() {
-        return getValue1().equals(STOP);
+        return !numeric && STOP.equals(value1);
+    }
+
+    /**
+     * Set all the fields (reused Memo, see MemoPool)
+     * String values are created only if needed
+     * @param act Action (canonical String)
+     * @param md Mode (canonical String)
+     * @param v1 Value 1
+     * @param v2 Value 2
+     * @param sq Sequence number
+     * @param ts Sender's timestamp (ms)
+     */
+    void set(String act, String md, double v1, double v2, int sq, long ts) {
+        clear();
+        setType(act, md);
+        value1 = null; // Created on demand
+        value2 = null;
+        setNumeric(v1, v2);
+        seq = sq;
+        timestamp = ts;
+    }
+
+    /**
+     * Set all the fields from known types (e.g. binary frames, no String lookup)
+     * @param act Action (not OTHER)
+     * @param md Mode (not OTHER)
+     * @param v1 Value 1
+     * @param v2 Value 2
+     * @param sq Sequence number
+     * @param ts Sender's timestamp (ms)
+     */
+    void set(ACTION act, MODE md, double v1, double v2, int sq, long ts) {
+        clear();
+        action = act.name();
+        mode = md.name();
+        actionType = act;
+        modeType = md;
+        value1 = null; // Created on demand
+        value2 = null;
+        setNumeric(v1, v2);
+        seq = sq;
+        timestamp = ts;
+    }
+
+    /**
+     * Set a reused Memo as an empty SCROLL_BATCH (samples are added with addSample)
+     * @param md Mode (not OTHER)
+     * @param sq Sequence number
+     * @param ts Sender's timestamp of the first sample (ms)
+     */
+    void set(MODE md, int sq, long ts) {
+        clear();
+        action = SCROLL_BATCH;
+        mode = md.name();
+        actionType = ACTION.SCROLL_BATCH;
+        modeType = md;
+        setBatch(ts);
+        seq = sq;
+    }
+
+    /**
+     * Set all the fields with String values (reused Memo, see MemoPool)
+     * @param act Action
+     * @param md Mode
+     * @param v1 Value 1
+     * @param v2 Value 2
+     * @param sq Sequence number
+     * @param ts Sender's timestamp (ms)
+     */
+    void set(String act, String md, String v1, String v2, int sq, long ts) {
+        clear();
+        setType(act, md);
+        value1 = v1;
+        value2 = v2;
+        seq = sq;
+        timestamp = ts;
+    }
+
+    /**
+     * Clear all the fields (as new Memo())
+     */
+    void clear() {
+        action = "";
+        mode = "";
+        actionType = ACTION.OTHER;
+        modeType = MODE.OTHER;
+        value1 = "";
+        value2 = "";
+        numeric = false;
+        value1D = 0;
+        value2D = 0;
+        nSamples = 0;
+        seq = 0;
+        timestamp = 0;
+        arrivalNs = 0;
+        dispatchNs = 0;
+        senderOffsetMs = Double.NaN;
+        sourceId = 0;
+    }
+
+    /**
+     * Set the action and mode (and their types)
+     * @param act Action
+     * @param md Mode
+     */
+    private void setType(String act, String md) {
+        action = act;
+        mode = md;
+        actionType = ACTION.of(act);
+        modeType = MODE.of(md);
+    }
+
+    /**
+     * Set the values of an empty batch
+     * @param ts Sender's timestamp of the first sample (ms)
+     */
+    private void setBatch(long ts) {
+        value1 = null; // Number of samples (created on demand)
+        value2 = "-";
+        nSamples = 0;
+        timestamp = ts;
+    }
+
+    /**
+     * Set the numeric values
+     * @param v1 Value 1
+     * @param v2 Value 2
+     */
+    private void setNumeric(double v1, double v2) {
+        numeric = true;
+        value1D = v1;
+        value2D = v2;
     }
 
     /**
      * Get the Memo from String
+     * Format: action,mode,value1,value2[,seq[,timestamp]]
      * @param mssg String
      * @return Memo
      */
     public static Memo valueOf(String mssg) {
-        String TAG = NAME + "valueOf";
-
-        Memo result = new Memo();
-        if (mssg != null) {
-            String[] parts = mssg.split(MEMOSP);
-            Logs.d(TAG, Arrays.toString(parts));
-            if (parts.length == 4) {
-                result.action = parts[0];
-                result.mode = parts[1];
-                result.value1 = parts[2];
-                result.value2 = parts[3];
-            } else {
-                Logs.d(TAG, "Problem in parsing the memo!");
-            }
-        }
+        final Memo result = new Memo();
+        if (mssg != null) MemoParser.parse(mssg, result);
 
         return result;
     }
@@ -192,6 +577,20 @@ public class Memo {
      */
     @Override
     public String toString() {
-        return action + MEMOSP + mode + MEMOSP + value1 + MEMOSP + value2;
+        return toString(true);
+    }
+
+    /**
+     * Get the String equivaluent
+     * @param withExtras Add seq and timestamp (only if set)
+     * @return String
+     */
+    public String toString(boolean withExtras) {
+        final String result = action + MEMOSP + mode + MEMOSP + getValue1() + MEMOSP + getValue2();
+
+        // Seq and timestamp only if set (keep the 4-part format for the old clients)
+        if (withExtras && timestamp != 0) return result + MEMOSP + seq + MEMOSP + timestamp;
+        else if (withExtras && seq != 0) return result + MEMOSP + seq;
+        else return result;
     }
 }
\ No newline at end of file
@@ -0,0 +1,319 @@
+package data;
+
+import data.Memo.ACTION;
+import data.Memo.MODE;
+import tools.Logs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary framing of Memos (negotiated per connection, see Server)
+ *
+ * Frame (big-endian):
+ * int length (bytes after this field) | byte version | byte type | payload
+ * Numeric payload: byte action | byte mode | byte flags | int seq | long timestamp | 2 x (float|double)
+ * Text payload: the memo's String (UTF-8), for memos that can't be coded
+ * Batch payload (SCROLL_BATCH): byte mode | byte flags | int seq | long timestamp | short n |
+ * n x (int offset in us | 2 x (float|double))
+ */
+public class MemoCodec {
+    private static final String NAME = "MemoCodec/";
+    // -------------------------------------------------------------------------------------------
+    public static final byte VERSION = 1;
+    public static final int LEN_FIELD_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 4 * 1024; // bytes (incl. the length field)
+
+    private static final byte TYPE_NUMERIC = 0;
+    private static final byte TYPE_TEXT = 1;
+    private static final byte TYPE_BATCH = 2;
+
+    private static final byte FLAG_FLOAT = 1; // Payloads are floats (otherwise doubles)
+
+    // Payload sizes (bytes after version and type)
+    private static final int NUMERIC_HEADER_SIZE = 3 + 4 + 8; // action, mode, flags | seq | timestamp
+    private static final int BATCH_HEADER_SIZE = 2 + 4 + 8 + 2; // mode, flags | seq | timestamp | n
+
+    // Codes = index in the arrays (not the ordinals)
+    private static final ACTION[] ACTIONS = new ACTION[]{
+            ACTION.SCROLL, ACTION.CONFIG, ACTION.LOG, ACTION.CONNECTION,
+            ACTION.FLING}; // Only append (codes are on the wire)
+    private static final MODE[] MODES = new MODE[]{
+            MODE.DRAG, MODE.RATE_BASED, MODE.FLICK, MODE.MOUSE,
+            MODE.KEEP_ALIVE, MODE.TECH, MODE.SENSITIVITY, MODE.GAIN, MODE.DENOM, MODE.COEF,
+            MODE.CREDIT}; // Only append (codes are on the wire)
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Is a protocol version supported?
+     * @param version Version number
+     * @return True/false
+     */
+    public static boolean isSupported(int version) {
+        return version == VERSION;
+    }
+
+    /**
+     * Encode a Memo into a new frame
+     * @param memo Memo
+     * @return ByteBuffer (ready to be written)
+     */
+    public static ByteBuffer encode(Memo memo) {
+        final ByteBuffer result = ByteBuffer.allocate(frameSize(memo));
+        encode(memo, result);
+        result.flip();
+
+        return result;
+    }
+
+    /**
+     * Encode a Memo into a buffer
+     * @param memo Memo
+     * @param dst Destination buffer (must have frameSize(memo) bytes remaining)
+     */
+    public static void encode(Memo memo, ByteBuffer dst) {
+        final int actCode = code(ACTIONS, memo.getActionType());
+        final int modeCode = code(MODES, memo.getModeType());
+
+        if (memo.isBatch() && modeCode != -1) {
+            final boolean isFloat = samplesFitFloat(memo);
+
+            dst.putInt(frameSize(memo) - LEN_FIELD_SIZE);
+            dst.put(VERSION);
+            dst.put(TYPE_BATCH);
+            dst.put((byte) modeCode);
+            dst.put(isFloat ? FLAG_FLOAT : 0);
+            dst.putInt(memo.getSeq());
+            dst.putLong(memo.getTimestamp());
+            dst.putShort((short) memo.getNSamples());
+            for (int i = 0; i < memo.getNSamples(); i++) {
+                dst.putInt(memo.getSampleOffsetUs(i));
+                if (isFloat) {
+                    dst.putFloat((float) memo.getSampleVt(i));
+                    dst.putFloat((float) memo.getSampleHz(i));
+                } else {
+                    dst.putDouble(memo.getSampleVt(i));
+                    dst.putDouble(memo.getSampleHz(i));
+                }
+            }
+        } else if (memo.isNumeric() && actCode != -1 && modeCode != -1) {
+            final double v1 = memo.getValue1Double();
+            final double v2 = memo.getValue2Double();
+            final boolean isFloat = fitsFloat(v1) && fitsFloat(v2);
+
+            dst.putInt(frameSize(memo) - LEN_FIELD_SIZE);
+            dst.put(VERSION);
+            dst.put(TYPE_NUMERIC);
+            dst.put((byte) actCode);
+            dst.put((byte) modeCode);
+            dst.put(isFloat ? FLAG_FLOAT : 0);
+            dst.putInt(memo.getSeq());
+            dst.putLong(memo.getTimestamp());
+            if (isFloat) {
+                dst.putFloat((float) v1);
+                dst.putFloat((float) v2);
+            } else {
+                dst.putDouble(v1);
+                dst.putDouble(v2);
+            }
+        } else {
+            final byte[] text = memo.toString().getBytes(StandardCharsets.UTF_8);
+            dst.putInt(2 + text.length);
+            dst.put(VERSION);
+            dst.put(TYPE_TEXT);
+            dst.put(text);
+        }
+    }
+
+    /**
+     * Get the size of the frame for a Memo
+     * @param memo Memo
+     * @return Size in bytes (incl. the length field)
+     */
+    public static int frameSize(Memo memo) {
+        if (memo.isBatch() && code(MODES, memo.getModeType()) != -1) {
+            final int sampleSize = 4 + (samplesFitFloat(memo) ? 2 * 4 : 2 * 8);
+            return LEN_FIELD_SIZE + 2 + 2 + 4 + 8 + 2 + memo.getNSamples() * sampleSize;
+        } else if (memo.isNumeric() && code(ACTIONS, memo.getActionType()) != -1 && code(MODES, memo.getModeType()) != -1) {
+            final boolean isFloat = fitsFloat(memo.getValue1Double()) && fitsFloat(memo.getValue2Double());
+            return LEN_FIELD_SIZE + 2 + 3 + 4 + 8 + (isFloat ? 2 * 4 : 2 * 8);
+        } else {
+            return LEN_FIELD_SIZE + 2 + memo.toString().getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    /**
+     * Is a whole frame available in the buffer?
+     * @param src Source buffer (in read mode)
+     * @return Size of the frame (incl. the length field) or -1 if not complete yet
+     * @throws IllegalStateException if the frame length is invalid
+     */
+    public static int availableFrame(ByteBuffer src) {
+        if (src.remaining() < LEN_FIELD_SIZE) return -1;
+
+        final int frameSize = LEN_FIELD_SIZE + src.getInt(src.position());
+        if (frameSize < LEN_FIELD_SIZE + 2 || frameSize > MAX_FRAME_SIZE) {
+            throw new IllegalStateException("Invalid frame size: " + frameSize);
+        }
+
+        return src.remaining() >= frameSize ? frameSize : -1;
+    }
+
+    /**
+     * Decode one frame from the buffer
+     * Call only when availableFrame() != -1
+     * @param src Source buffer (in read mode), position is moved to after the frame
+     * @return Memo (empty Memo if the frame is not valid)
+     */
+    public static Memo decode(ByteBuffer src) {
+        final Memo result = new Memo();
+        decode(src, result);
+
+        return result;
+    }
+
+    /**
+     * Decode one frame from the buffer into a Memo (no allocation, e.g. with a Memo from the MemoPool)
+     * Call only when availableFrame() != -1
+     * @param src Source buffer (in read mode), position is moved to after the frame
+     * @param dst Memo to fill (cleared if the frame is not valid)
+     * @return The filled Memo
+     * @throws IllegalStateException if the fields don't fit in the frame (position is then after the frame)
+     */
+    public static Memo decode(ByteBuffer src, Memo dst) {
+        final String TAG = NAME + "decode";
+
+        final int frameSize = LEN_FIELD_SIZE + src.getInt();
+        final int end = src.position() + frameSize - LEN_FIELD_SIZE;
+
+        final byte version = src.get();
+        final byte type = src.get();
+        dst.clear();
+
+        if (!isSupported(version)) {
+            Logs.d(TAG, "Unsupported version", version);
+        } else if (type == TYPE_NUMERIC) {
+            // Values size depends on the flags
+            final int payloadSize = end - src.position();
+            if (payloadSize < NUMERIC_HEADER_SIZE ||
+                    payloadSize < NUMERIC_HEADER_SIZE + valuesSize(src.get(src.position() + 2))) {
+                throw malformed(src, end, "numeric", payloadSize);
+            }
+
+            final int actCode = src.get();
+            final int modeCode = src.get();
+            final byte flags = src.get();
+            final int seq = src.getInt();
+            final long timestamp = src.getLong();
+
+            final double v1, v2;
+            if ((flags & FLAG_FLOAT) != 0) {
+                v1 = src.getFloat();
+                v2 = src.getFloat();
+            } else {
+                v1 = src.getDouble();
+                v2 = src.getDouble();
+            }
+
+            if (actCode >= 0 && actCode < ACTIONS.length && modeCode >= 0 && modeCode < MODES.length) {
+                dst.set(ACTIONS[actCode], MODES[modeCode], v1, v2, seq, timestamp);
+            } else {
+                Logs.d(TAG, "Unknown codes", actCode, modeCode);
+            }
+        } else if (type == TYPE_BATCH) {
+            final int payloadSize = end - src.position();
+            if (payloadSize < BATCH_HEADER_SIZE) throw malformed(src, end, "batch", payloadSize);
+
+            final int modeCode = src.get();
+            final byte flags = src.get();
+            final int seq = src.getInt();
+            final long timestamp = src.getLong();
+            final int nSamples = src.getShort();
+            final boolean isFloat = (flags & FLAG_FLOAT) != 0;
+            final int sampleSize = 4 + valuesSize(flags);
+            if (nSamples < 0 || nSamples * sampleSize > end - src.position()) {
+                throw malformed(src, end, "batch", payloadSize);
+            }
+
+            if (modeCode >= 0 && modeCode < MODES.length && nSamples <= Memo.MAX_BATCH_SAMPLES) {
+                dst.set(MODES[modeCode], seq, timestamp);
+                for (int i = 0; i < nSamples; i++) {
+                    final int offsetUs = src.getInt();
+                    final double vt = isFloat ? src.getFloat() : src.getDouble();
+                    final double hz = isFloat ? src.getFloat() : src.getDouble();
+                    dst.addSample(vt, hz, offsetUs);
+                }
+            } else {
+                Logs.d(TAG, "Invalid batch", modeCode, nSamples);
+            }
+        } else if (type == TYPE_TEXT) {
+            MemoParser.parse(src, src.position(), end, dst);
+        } else {
+            Logs.d(TAG, "Unknown frame type", type);
+        }
+
+        src.position(end); // Skip whatever is left of the frame
+        return dst;
+    }
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Get the size of the two values (of a numeric payload or a batch sample)
+     * @param flags Flags of the frame
+     * @return Size in bytes
+     */
+    private static int valuesSize(byte flags) {
+        return (flags & FLAG_FLOAT) != 0 ? 2 * 4 : 2 * 8;
+    }
+
+    /**
+     * Skip a malformed frame and make its exception
+     * @param src Source buffer (position is moved to after the frame)
+     * @param end End of the frame
+     * @param type Type of the frame (for the message)
+     * @param payloadSize Payload size
+     * @return IllegalStateException (to throw)
+     */
+    private static IllegalStateException malformed(ByteBuffer src, int end, String type, int payloadSize) {
+        src.position(end);
+        return new IllegalStateException("Malformed " + type + " frame, payload size: " + payloadSize);
+    }
+
+    /**
+     * Get the code of a type
+     * @param table Code table
+     * @param type ACTION or MODE
+     * @return Code (index) or -1 if not in the table
+     */
+    private static int code(Enum<?>[] table, Enum<?> type) {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] == type) return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Can all the samples of a batch be sent as floats without loss?
+     * @param memo SCROLL_BATCH Memo
+     * @return True/false
+     */
+    private static boolean samplesFitFloat(Memo memo) {
+        for (int i = 0; i < memo.getNSamples(); i++) {
+            if (!fitsFloat(memo.getSampleVt(i)) || !fitsFloat(memo.getSampleHz(i))) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Can a double be sent as float without loss?
+     * @param v Value
+     * @return True/false
+     */
+    private static boolean fitsFloat(double v) {
+        return (double) (float) v == v;
+    }
+}
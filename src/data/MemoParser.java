@@ -0,0 +1,281 @@
+package data;
+
+import tools.Logs;
+
+import java.nio.ByteBuffer;
+
+import static data.Consts.STRINGS.*;
+
+/**
+ * Parses text memos (action,mode,value1,value2[,seq[,timestamp]]) without allocating:
+ * known tokens map to the constant Strings (the Memo resolves its ACTION/MODE once from them),
+ * SCROLL values are parsed into the Memo's doubles (String values are created only if asked for).
+ * Other memos keep their String values
+ */
+public class MemoParser {
+    private static final String NAME = "MemoParser/";
+    // -------------------------------------------------------------------------------------------
+    private static final String[] VALUE_TOKENS = new String[]{BIN, TEXT, STOP, "-"};
+    private static final String[] TOKENS = new String[Memo.ACTION.values().length + Memo.MODE.values().length
+            + VALUE_TOKENS.length - 2]; // Names of the known types (except OTHER) + values
+    static {
+        int i = 0;
+        for (Memo.ACTION action : Memo.ACTION.values()) if (action != Memo.ACTION.OTHER) TOKENS[i++] = action.name();
+        for (Memo.MODE mode : Memo.MODE.values()) if (mode != Memo.MODE.OTHER) TOKENS[i++] = mode.name();
+        for (String token : VALUE_TOKENS) TOKENS[i++] = token;
+    }
+
+    private static final double[] POW10 = new double[23]; // Exact powers of ten
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10;
+    }
+
+    private static final int MAX_DIGITS = 18; // Significant digits kept (fit in a long)
+    private static final long NOT_A_LONG = Long.MIN_VALUE;
+
+    // Reusable view of the text in a binary frame (one per thread)
+    private static final ThreadLocal<AsciiSequence> asciiViews = ThreadLocal.withInitial(AsciiSequence::new);
+
+    // -------------------------------------------------------------------------------------------
+
+    // ASCII bytes of a ByteBuffer as a CharSequence (no copy)
+    private static class AsciiSequence implements CharSequence {
+        ByteBuffer buffer;
+        int start;
+        int length;
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text(this, start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text(this, 0, length);
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Parse a memo
+     * @param line Text (without the line break)
+     * @param dst Memo to fill (cleared if the text is not a memo)
+     * @return True if parsed
+     */
+    public static boolean parse(CharSequence line, Memo dst) {
+        final String TAG = NAME + "parse";
+
+        // Field bounds
+        final int end = line.length();
+        final int c0 = nextComma(line, 0, end);
+        final int c1 = nextComma(line, c0 + 1, end);
+        final int c2 = nextComma(line, c1 + 1, end);
+        final int c3 = nextComma(line, c2 + 1, end);
+        final int c4 = nextComma(line, c3 + 1, end);
+        final int c5 = nextComma(line, c4 + 1, end);
+        if (c2 >= end || c5 < end) { // Less than 4 or more than 6 fields
+            Logs.d(TAG, "Problem in parsing the memo!", line);
+            dst.clear();
+            return false;
+        }
+
+        final String action = token(line, 0, c0);
+        final String mode = token(line, c0 + 1, c1);
+
+        // Optional seq and timestamp
+        int seq = 0;
+        long timestamp = 0;
+        if (c3 < end) {
+            final long sq = parseLong(line, c3 + 1, c4);
+            final long ts = c4 < end ? parseLong(line, c4 + 1, end) : 0;
+            if (sq == NOT_A_LONG || ts == NOT_A_LONG) {
+                Logs.d(TAG, "Problem in parsing seq/timestamp!");
+            } else {
+                seq = (int) sq;
+                timestamp = ts;
+            }
+        }
+
+        // SCROLL values as numbers (if they are)
+        if (SCROLL.equals(action)) {
+            final double v1 = parseDouble(line, c1 + 1, c2);
+            final double v2 = parseDouble(line, c2 + 1, c3);
+            if (!Double.isNaN(v1) && !Double.isNaN(v2)) {
+                dst.set(action, mode, v1, v2, seq, timestamp);
+                return true;
+            }
+        }
+
+        dst.set(action, mode, token(line, c1 + 1, c2), token(line, c2 + 1, c3), seq, timestamp);
+        return true;
+    }
+
+    /**
+     * Parse a memo from ASCII bytes
+     * @param src Buffer
+     * @param start Index of the first byte
+     * @param end Index after the last byte
+     * @param dst Memo to fill
+     * @return True if parsed
+     */
+    public static boolean parse(ByteBuffer src, int start, int end, Memo dst) {
+        final AsciiSequence view = asciiViews.get();
+        view.buffer = src;
+        view.start = start;
+        view.length = end - start;
+
+        final boolean result = parse(view, dst);
+        view.buffer = null;
+        return result;
+    }
+
+    /**
+     * Parse a decimal number (e.g. -12.5, 3e-2)
+     * Up to 15 significant digits and powers of ten up to 22 give the same result as Double.parseDouble
+     * @param s Text
+     * @param start Start index
+     * @param end End index (exclusive)
+     * @return Value or NaN if not a number
+     */
+    public static double parseDouble(CharSequence s, int start, int end) {
+        if (start >= end) return Double.NaN;
+
+        int i = start;
+        boolean negative = false;
+        char c = s.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int nDigits = 0;
+        int scale = 0;
+        boolean dot = false;
+        boolean anyDigit = false;
+        for (; i < end; i++) {
+            c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (nDigits < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) nDigits++;
+                    if (dot) scale--;
+                } else if (!dot) {
+                    scale++; // Dropped integer digit
+                }
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else if (c == 'e' || c == 'E') {
+                break;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (!anyDigit) return Double.NaN;
+
+        // Exponent
+        if (i < end) {
+            i++;
+            if (i >= end) return Double.NaN;
+            final long exp = parseLong(s, i, end);
+            if (exp == NOT_A_LONG) return Double.NaN;
+            scale += (int) Math.max(-400, Math.min(400, exp));
+        }
+
+        double value = mantissa;
+        if (scale < 0) value = -scale < POW10.length ? value / POW10[-scale] : value / Math.pow(10, -scale);
+        else if (scale > 0) value = scale < POW10.length ? value * POW10[scale] : value * Math.pow(10, scale);
+
+        return negative ? -value : value;
+    }
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Parse a whole number
+     * @param s Text
+     * @param start Start index
+     * @param end End index (exclusive)
+     * @return Value or NOT_A_LONG
+     */
+    private static long parseLong(CharSequence s, int start, int end) {
+        if (start >= end) return NOT_A_LONG;
+
+        int i = start;
+        boolean negative = false;
+        final char first = s.charAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+            if (i >= end) return NOT_A_LONG;
+        }
+
+        long result = 0;
+        for (; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9' || result > (Long.MAX_VALUE - 9) / 10) return NOT_A_LONG;
+            result = result * 10 + (c - '0');
+        }
+
+        return negative ? -result : result;
+    }
+
+    /**
+     * Get the index of the next comma
+     * @param s Text
+     * @param from Start index
+     * @param end End index (exclusive)
+     * @return Index of the comma or end if none (or from > end)
+     */
+    private static int nextComma(CharSequence s, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (s.charAt(i) == ',') return i;
+        }
+
+        return end;
+    }
+
+    /**
+     * Get a field as a String (the constant String if it's a known token)
+     * @param s Text
+     * @param start Start index
+     * @param end End index (exclusive)
+     * @return String
+     */
+    private static String token(CharSequence s, int start, int end) {
+        final int length = end - start;
+        for (String token : TOKENS) {
+            if (token.length() != length) continue;
+
+            int i = 0;
+            while (i < length && token.charAt(i) == s.charAt(start + i)) i++;
+            if (i == length) return token;
+        }
+
+        return text(s, start, end);
+    }
+
+    /**
+     * Copy a part of the text into a new String
+     * @param s Text
+     * @param start Start index
+     * @param end End index (exclusive)
+     * @return String
+     */
+    private static String text(CharSequence s, int start, int end) {
+        return new StringBuilder(end - start).append(s, start, end).toString();
+    }
+}
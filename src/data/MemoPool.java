@@ -0,0 +1,56 @@
+package data;
+
+/**
+ * Pool of reusable Memos for the receive path (one pool per thread, no locking)
+ * A Memo is released by the thread that acquired it, once nothing keeps a reference to it
+ * (after Controller.scroll for SCROLL memos, other memos are simply not returned)
+ */
+public class MemoPool {
+    private static final String NAME = "MemoPool/";
+    // -------------------------------------------------------------------------------------------
+    private static final int CAPACITY = 64; // Memos kept per thread (more are left to the GC)
+
+    private static final ThreadLocal<MemoPool> pools = ThreadLocal.withInitial(MemoPool::new);
+
+    private final Memo[] mFree = new Memo[CAPACITY];
+    private int mNFree;
+    private long mNCreated;
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Get a cleared Memo (from this thread's pool, or new if empty)
+     * @return Memo
+     */
+    public static Memo acquire() {
+        final MemoPool pool = pools.get();
+        if (pool.mNFree == 0) {
+            pool.mNCreated++;
+            return new Memo();
+        }
+
+        final Memo memo = pool.mFree[--pool.mNFree];
+        pool.mFree[pool.mNFree] = null;
+        return memo;
+    }
+
+    /**
+     * Return a Memo to this thread's pool
+     * @param memo Memo (must not be used after)
+     */
+    public static void release(Memo memo) {
+        final MemoPool pool = pools.get();
+        if (memo == null || pool.mNFree == CAPACITY) return;
+
+        memo.clear();
+        pool.mFree[pool.mNFree++] = memo;
+    }
+
+    /**
+     * Get the number of Memos created by this thread's pool (should stay small)
+     * @return Number of Memos
+     */
+    public static long getNCreated() {
+        return pools.get().mNCreated;
+    }
+}
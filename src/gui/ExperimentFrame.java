@@ -1,5 +1,6 @@
 package gui;
 
+import control.LatencyMonitor;
 import control.Logger;
 import control.Server;
 import data.Memo;
@@ -188,6 +189,9 @@ public class ExperimentFrame extends JFrame {
         final String TAG = NAME + "blockFinished";
 
         // What next?
+        // Log the input latencies of the block
+        LatencyMonitor.get().logAndReset(mGenInfo);
+
         if (mGenInfo.blockNum < mPart.nBlocks()) { // More blocks
             Logger.get().logTimeInfo(mGenInfo, timeInfo); // Log block disp time
 
@@ -334,10 +338,7 @@ public class ExperimentFrame extends JFrame {
         setExtendedState(JFrame.MAXIMIZED_BOTH); // maximized frame
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); // close on exit
 
-        GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
-        GraphicsDevice[] gd = ge.getScreenDevices();
-
-        mScrBound = gd[1].getDefaultConfiguration().getBounds();
+        mScrBound = getExpScreen().getDefaultConfiguration().getBounds();
         mScrW = mScrBound.width;
         mScrH = mScrBound.height;
 
@@ -350,6 +351,15 @@ public class ExperimentFrame extends JFrame {
         );
     }
 
+    /**
+     * Get the screen of the experiment (the second one, or the only one, e.g. under Xvfb)
+     * @return GraphicsDevice
+     */
+    public static GraphicsDevice getExpScreen() {
+        final GraphicsDevice[] gd = GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices();
+        return gd[Math.min(1, gd.length - 1)];
+    }
+
     /**
      * Send the scroll action to the BlockPanel
      * @param vtScrollAmt Vertical scroll amount
@@ -359,6 +369,14 @@ public class ExperimentFrame extends JFrame {
         if (mBlockPanel != null) mBlockPanel.scroll(vtScrollAmt, hzScrollAmt);
     }
 
+    /**
+     * Get the GeneralInfo of the current part (for logging outside the panels)
+     * @return GeneralInfo
+     */
+    public Logger.GeneralInfo getGenInfo() {
+        return mGenInfo;
+    }
+
     /**
      * Set up the keystrokes
      */
@@ -1,10 +1,12 @@
 package gui;
 
 import control.Logger;
+import control.TransferFunctions;
 import data.DimensionD;
 import data.MinMax;
 import data.Pair;
 import experiment.Experiment;
+import experiment.Experiment.TECHNIQUE;
 import tools.*;
 
 import javax.swing.*;
@@ -582,7 +584,7 @@ public class TDScrollPane extends JScrollPane implements MouseListener, MouseWhe
             // Scroll manually
             final double preciseRotation = e.getPreciseWheelRotation();
 //            final int scrollAmt = (int) (preciseRotation * Experiment.MOUSE_SCROLL_MULTIP);
-            final int scrollAmt = (int) (preciseRotation * Experiment.MOUSE_GAIN);
+            final int scrollAmt = (int) TransferFunctions.get().apply(TECHNIQUE.MOUSE, preciseRotation);
 
             if (e.getModifiersEx() == InputEvent.CTRL_DOWN_MASK) { // Horizontal with CTRL
                 scroll(0, scrollAmt);
@@ -1,5 +1,6 @@
 package gui;
 
+import control.FlickEngine;
 import tools.Logs;
 
 import javax.swing.*;
@@ -73,6 +74,9 @@ public class TechConfigPanel extends JPanel implements ItemListener {
                 1.0,
                 0.1);
         mFlickCoefSp = new MyConfigSpinner(flickCoefModel);
+        mFlickCoefSp.addChangeListener(e -> // Friction of the glide
+                FlickEngine.get().setCoef(((Number) mFlickCoefSp.getValue()).doubleValue()));
+        FlickEngine.get().setCoef(((Number) mFlickCoefSp.getValue()).doubleValue());
 
         // Choosing technique
         mTechniquesCoBx = new JComboBox(TECHNIQUE.values());
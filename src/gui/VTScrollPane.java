@@ -1,10 +1,12 @@
 package gui;
 
 import control.Logger;
+import control.TransferFunctions;
 import data.Consts;
 import data.DimensionD;
 import data.MinMax;
 import experiment.Experiment;
+import experiment.Experiment.TECHNIQUE;
 import tools.*;
 
 import javax.swing.*;
@@ -551,7 +553,7 @@ public class VTScrollPane extends JScrollPane implements MouseListener, MouseWhe
             final double unitsToScroll = e.getPreciseWheelRotation();
 //        final double gain = Math.pow(Math.abs(e.getWheelRotation()), 1.5);
             Logs.d(NAME, "uts", unitsToScroll, e.getUnitsToScroll());
-            final int dY = (int) (unitsToScroll * Experiment.MOUSE_GAIN);
+            final int dY = (int) TransferFunctions.get().apply(TECHNIQUE.MOUSE, unitsToScroll);
             scroll(dY); // Logging is done inside scroll()
         }
 
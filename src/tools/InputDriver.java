@@ -0,0 +1,202 @@
+package tools;
+
+import control.Controller;
+import control.Logger;
+import experiment.Experiment;
+import experiment.Experiment.TASK;
+import experiment.Experiment.TECHNIQUE;
+import gui.ExperimentFrame;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.AWTEventListener;
+import java.awt.event.MouseEvent;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Synthetic mouse input for the MOUSE technique (no participant), with the Controller's Robot
+ * Opens the ExperimentFrame on a MOUSE part, starts the first block and streams wheel and/or move events
+ * over the scroll pane at a fixed rate. The app handles (and logs) them as real input; the delivery to the EDT
+ * (event time -> dispatch) is reported at the end
+ * Needs a display: e.g. under Xvfb (xvfb-run -s "-screen 0 1920x1080x24" java ... tools.InputDriver)
+ *
+ * Args: [wheel|move|both] [rateHz] [durationSec] [pattern] [task]
+ * Patterns: STEADY (1 notch per event), BURST (bursts of BURST_LEN events), SWEEP (direction flips every second)
+ * e.g. both 500 20 BURST TWO_DIM -> 500 events/s of bursts for 20 s on the 2D task
+ */
+public class InputDriver {
+    private final static String NAME = "InputDriver/";
+    // -------------------------------------------------------------------------------------------
+    private static final int PID = 999; // Logs of the driver go apart from the participants'
+    private static final long SETTLE_MS = 1000; // Wait for the frame to show (and the EDT to catch up)
+    private static final int BURST_LEN = 10; // Events back to back (then a pause keeping the rate)
+    private static final int MOVE_RADIUS = 200; // px (circle around the pane's center)
+    private static final double MOVE_PERIOD_S = 2;
+
+    public enum PATTERN {STEADY, BURST, SWEEP}
+
+    private final Robot mRobot;
+    private final Point mCenter; // On the screen
+    private final boolean mWheel;
+    private final boolean mMove;
+    private final int mRate;
+    private final PATTERN mPattern;
+
+    // Delivered events (counted on the EDT)
+    private long mNWheelDelivered;
+    private long mNMoveDelivered;
+    private final LatencyHistogram mDeliveryHist = new LatencyHistogram(); // us
+
+    private long mNWheelSent;
+    private long mNMoveSent;
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor
+     * @param robot Robot
+     * @param center Center of the scroll area (screen coordinates)
+     * @param wheel Send wheel events?
+     * @param move Send move events?
+     * @param rate Events per second (of each kind)
+     * @param pattern Pattern of the wheel
+     */
+    public InputDriver(Robot robot, Point center, boolean wheel, boolean move, int rate, PATTERN pattern) {
+        mRobot = robot;
+        mCenter = center;
+        mWheel = wheel;
+        mMove = move;
+        mRate = rate;
+        mPattern = pattern;
+    }
+
+    /**
+     * MAIN
+     * @param args Arguments
+     */
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+        final String kind = args.length > 0 ? args[0] : "both";
+        final int rate = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final double durSec = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        final PATTERN pattern = args.length > 3 ? PATTERN.valueOf(args[3]) : PATTERN.STEADY;
+        final TASK task = args.length > 4 ? TASK.valueOf(args[4]) : TASK.VERTICAL;
+
+        if (GraphicsEnvironment.isHeadless()) {
+            System.out.println("No display (run under Xvfb)");
+            System.exit(1);
+        }
+
+        // A MOUSE part of the task (first session)
+        final Experiment experiment = new Experiment(PID);
+        int partInd = 0;
+        while (partInd < 4 && (experiment.getPart(0, partInd).getTech() != TECHNIQUE.MOUSE ||
+                experiment.getPart(0, partInd).getTask() != task)) partInd++;
+        final Experiment.Part part = experiment.getPart(0, partInd);
+        Logger.get().logParticipant(PID);
+
+        // Straight to the first block
+        final int partId = partInd + 1;
+        SwingUtilities.invokeAndWait(() -> {
+            ExperimentFrame.get().setPart(part).showIntro(PID, 1, partId);
+            ExperimentFrame.get().showPartStartPanel();
+            ExperimentFrame.get().showBlock();
+        });
+        Thread.sleep(SETTLE_MS);
+
+        final Point center = new Point();
+        SwingUtilities.invokeAndWait(() -> {
+            final Container pane = ExperimentFrame.get().getContentPane();
+            final Point origin = pane.getLocationOnScreen();
+            center.setLocation(origin.x + pane.getWidth() / 2, origin.y + pane.getHeight() / 2);
+        });
+
+        final InputDriver driver = new InputDriver(Controller.get().getRobot(), center,
+                !kind.equals("move"), !kind.equals("wheel"), rate, pattern);
+        driver.run((long) (durSec * 1e9));
+
+        System.exit(0);
+    }
+
+    /**
+     * Stream the events for a duration, then print the sent/delivered counts
+     * @param durNs Duration (ns)
+     */
+    public void run(long durNs) throws InterruptedException, InvocationTargetException {
+        final AWTEventListener listener = this::onEvent;
+        Toolkit.getDefaultToolkit().addAWTEventListener(listener,
+                AWTEvent.MOUSE_WHEEL_EVENT_MASK | AWTEvent.MOUSE_MOTION_EVENT_MASK);
+
+        mRobot.setAutoDelay(0); // Paced here
+        mRobot.setAutoWaitForIdle(false); // Don't wait for the EDT (to load it)
+        mRobot.mouseMove(mCenter.x, mCenter.y);
+
+        final long periodNs = 1_000_000_000L / mRate;
+        final long stTime = System.nanoTime();
+        long deadline = stTime;
+        int nInBurst = 0;
+
+        while (System.nanoTime() - stTime < durNs) {
+            final double t = (deadline - stTime) / 1e9;
+
+            if (mMove) {
+                final double angle = 2 * Math.PI * t / MOVE_PERIOD_S;
+                mRobot.mouseMove(
+                        mCenter.x + (int) (MOVE_RADIUS * Math.cos(angle)),
+                        mCenter.y + (int) (MOVE_RADIUS * Math.sin(angle)));
+                mNMoveSent++;
+            }
+            if (mWheel) {
+                mRobot.mouseWheel(notches(t));
+                mNWheelSent++;
+            }
+
+            // Next event (bursts: back to back, then the pause of the whole burst)
+            if (mPattern == PATTERN.BURST && ++nInBurst < BURST_LEN) continue;
+            deadline += periodNs * (mPattern == PATTERN.BURST ? BURST_LEN : 1);
+            nInBurst = 0;
+
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                if (remaining > 100_000) LockSupport.parkNanos(remaining - 60_000);
+                else Thread.onSpinWait();
+            }
+        }
+
+        final double durSec = (System.nanoTime() - stTime) / 1e9;
+        Thread.sleep(SETTLE_MS);
+        Toolkit.getDefaultToolkit().removeAWTEventListener(listener);
+
+        SwingUtilities.invokeAndWait(() -> System.out.printf(
+                "%s %d/s for %.1f s | wheel sent: %d delivered: %d | move sent: %d delivered: %d%n" +
+                        "  delivery (event -> EDT) %s%n",
+                mPattern, mRate, durSec, mNWheelSent, mNWheelDelivered, mNMoveSent, mNMoveDelivered,
+                mDeliveryHist));
+    }
+
+    /**
+     * Get the notches of the wheel event at a time
+     * @param t Time since start (s)
+     * @return Notches (> 0 -> down)
+     */
+    private int notches(double t) {
+        return switch (mPattern) {
+            case STEADY, BURST -> 1;
+            case SWEEP -> ((int) t) % 2 == 0 ? 1 : -1;
+        };
+    }
+
+    /**
+     * Count a delivered event and its delay (on the EDT, once per native event)
+     * @param event AWTEvent
+     */
+    private void onEvent(AWTEvent event) {
+        if (!(event instanceof MouseEvent) || !(event.getSource() instanceof Window)) return; // Not the retargeted copies
+        final MouseEvent mouseEvent = (MouseEvent) event;
+        if (mouseEvent.getID() == MouseEvent.MOUSE_WHEEL) mNWheelDelivered++;
+        else if (mouseEvent.getID() == MouseEvent.MOUSE_MOVED) mNMoveDelivered++;
+        else return;
+
+        mDeliveryHist.record(Math.max(0, System.currentTimeMillis() - mouseEvent.getWhen()) * 1000);
+    }
+}
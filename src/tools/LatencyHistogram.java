@@ -0,0 +1,107 @@
+package tools;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-bucket histogram of latencies (in us)
+ * Buckets are linear up to 32 us, then 32 buckets per power of two (~3% resolution)
+ * Not thread-safe (record and read on the same thread)
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS; // Buckets per power of two
+    private static final int MAX_SHIFT = 32; // Values up to ~2^37 us
+    private static final int N_BUCKETS = (MAX_SHIFT + 2) * SUB;
+
+    private final long[] mCounts = new long[N_BUCKETS];
+    private long mTotalCount;
+    private long mMax;
+
+    /**
+     * Record a value
+     * @param valueUs Latency in us (negative values are recorded as 0)
+     */
+    public void record(long valueUs) {
+        final long v = Math.max(0, valueUs);
+        mCounts[index(v)]++;
+        mTotalCount++;
+        if (v > mMax) mMax = v;
+    }
+
+    /**
+     * Get the value at a percentile
+     * @param percentile Percentile (0-100)
+     * @return Upper bound of the bucket containing the percentile (us), 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        if (mTotalCount == 0) return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * mTotalCount));
+        long count = 0;
+        for (int i = 0; i < N_BUCKETS; i++) {
+            count += mCounts[i];
+            if (count >= rank) return Math.min(upperBound(i), mMax);
+        }
+
+        return mMax;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public long getCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * Clear all the counts
+     */
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mMax = 0;
+    }
+
+    /**
+     * Get the percentile summary
+     * @return String (count, p50, p99, p99.9, max)
+     */
+    @Override
+    public String toString() {
+        return "n: " + mTotalCount +
+                " | p50: " + getPercentile(50) +
+                " | p99: " + getPercentile(99) +
+                " | p99.9: " + getPercentile(99.9) +
+                " | max: " + mMax + " (us)";
+    }
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Get the bucket index of a value
+     * @param v Value (>= 0)
+     * @return Index
+     */
+    private static int index(long v) {
+        if (v < SUB) return (int) v;
+
+        final int shift = Math.min((63 - Long.numberOfLeadingZeros(v)) - SUB_BITS, MAX_SHIFT);
+        final long sub = Math.min(v >> shift, 2 * SUB - 1); // Overflow goes to the last bucket
+        return (shift + 1) * SUB + (int) (sub - SUB);
+    }
+
+    /**
+     * Get the upper bound (inclusive) of a bucket
+     * @param index Bucket index
+     * @return Value
+     */
+    private static long upperBound(int index) {
+        if (index < SUB) return index;
+
+        final int shift = index / SUB - 1;
+        final long sub = (index % SUB) + SUB;
+        return ((sub + 1) << shift) - 1;
+    }
+}
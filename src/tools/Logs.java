@@ -24,6 +24,25 @@ public class Logs {
         toLogList.add("Logger");
     }
 
+    /**
+     * Show debug log (no varargs array: called per memo)
+     * @param tag TAG
+     * @param param Thing to show
+     */
+    public static void d(String tag, Object param) {
+        if (toShowTag(tag)) System.out.println(tag + " >> " + param);
+    }
+
+    /**
+     * Show debug log (no varargs array: called per memo)
+     * @param tag TAG
+     * @param param1 First thing to show
+     * @param param2 Second thing to show
+     */
+    public static void d(String tag, Object param1, Object param2) {
+        if (toShowTag(tag)) System.out.println(tag + " >> " + param1 + " | " + param2);
+    }
+
     /**
      * Show debug log
      * @param tag TAG
@@ -58,8 +77,20 @@ public class Logs {
         }
     }
 
+    /**
+     * Is the class of the tag (before '/') in the list? (no allocation, called on every log)
+     * @param tag TAG
+     * @return True/false
+     */
     private static boolean toShowTag(String tag) {
-        return toLogList.contains(tag.split("/")[0]);
+        for (int i = 0; i < toLogList.size(); i++) {
+            final String name = toLogList.get(i);
+            if (tag.startsWith(name) && (tag.length() == name.length() || tag.charAt(name.length()) == '/')) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
 }
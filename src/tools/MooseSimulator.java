@@ -0,0 +1,319 @@
+package tools;
+
+import control.Controller;
+import control.FlickEngine;
+import control.FlowControl;
+import control.LatencyMonitor;
+import control.Logger;
+import control.ScrollCoalescer;
+import control.ScrollPacer;
+import control.ScrollPredictor;
+import control.Server;
+import data.Memo;
+import data.MemoCodec;
+import experiment.Experiment.TECHNIQUE;
+
+import javax.swing.*;
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import static data.Consts.STRINGS.*;
+
+/**
+ * Headless Moose simulator and load generator
+ * Streams synthetic SCROLL memos (binary framing, with seq and timestamp) to the Server at a fixed rate,
+ * with gesture profiles per technique, and reports the achieved rate
+ * With "local", the Server runs in this JVM (no window, amounts are discarded) and its merge/drop counts
+ * and latency percentiles are reported too
+ * With "batch", each burst is sent as one SCROLL_BATCH (timestamped samples, one frame)
+ * With "fling", a flick is only its release velocity (one FLING, the FlickEngine glides on the desktop)
+ * With "predict" (and "local"), the ScrollPredictor is on and its corrections are reported
+ *
+ * Args: [technique|ALL] [rateHz] [durationSec] [burst] [stopEveryMs] [local] [udp] [batch] [fling] [predict]
+ * e.g. FLICK 1000 10 1 500 local -> 1 kHz of flicks for 10 s, a STOP every 500 ms
+ */
+public class MooseSimulator {
+    private final static String NAME = "MooseSimulator/";
+    // -------------------------------------------------------------------------------------------
+    private static final String HOST = "localhost";
+    private static final int PORT = 8000;
+    private static final long SETTLE_MS = 500; // Wait for the server to catch up before reporting
+
+    // Gesture profiles (mm, mm/s)
+    private static final double DRAG_DUR_S = 0.25; // One drag stroke
+    private static final double DRAG_PEAK_SPEED = 150;
+    private static final double FLICK_START_SPEED = 600;
+    private static final double FLICK_TAU_S = 0.325; // Velocity decay constant
+    private static final double FLICK_MIN_SPEED = 5; // Next flick below this
+    private static final double FLICK_DUR_S = FLICK_TAU_S * Math.log(FLICK_START_SPEED / FLICK_MIN_SPEED);
+    private static final double RB_MAX_RATE = 0.05; // mm per ms
+    private static final double RB_PERIOD_S = 2;
+
+    private final TECHNIQUE mTech;
+    private final int mRate;
+    private final int mBurst;
+    private final long mStopEveryNs;
+    private final boolean mBatch;
+    private final boolean mFling;
+
+    private long mNSent;
+    private long mNStops;
+
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor
+     * @param tech Technique
+     * @param rate Memos per second
+     * @param burst Memos sent back to back (then the rate is kept on average)
+     * @param stopEveryMs STOP cadence (ms), 0 = never
+     * @param batch Send each burst as one SCROLL_BATCH
+     * @param fling Send only the release velocity of each flick (FLICK)
+     */
+    public MooseSimulator(TECHNIQUE tech, int rate, int burst, long stopEveryMs, boolean batch, boolean fling) {
+        mTech = tech;
+        mRate = rate;
+        mBurst = Math.max(1, Math.min(burst, batch ? Memo.MAX_BATCH_SAMPLES : Integer.MAX_VALUE));
+        mStopEveryNs = stopEveryMs * 1_000_000;
+        mBatch = batch;
+        mFling = fling && tech == TECHNIQUE.FLICK;
+    }
+
+    /**
+     * MAIN
+     * @param args Arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException, InvocationTargetException {
+        final String techArg = args.length > 0 ? args[0] : "ALL";
+        final int rate = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        final double durSec = args.length > 2 ? Double.parseDouble(args[2]) : 5;
+        final int burst = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        final long stopEveryMs = args.length > 4 ? Long.parseLong(args[4]) : 0;
+        final List<String> flags = new ArrayList<>();
+        for (int i = 5; i < args.length; i++) flags.add(args[i]);
+        final boolean local = flags.contains("local");
+        final boolean udp = flags.contains("udp");
+        final boolean batch = flags.contains("batch");
+        final boolean fling = flags.contains("fling");
+
+        final List<TECHNIQUE> techs = new ArrayList<>();
+        if (techArg.equals("ALL")) {
+            techs.add(TECHNIQUE.DRAG);
+            techs.add(TECHNIQUE.RATE_BASED);
+            techs.add(TECHNIQUE.FLICK);
+        } else {
+            techs.add(TECHNIQUE.valueOf(techArg));
+        }
+
+        if (local) {
+            System.setProperty("java.awt.headless", "true");
+            ScrollCoalescer.get().setTarget((vt, hz) -> {}); // Only measure the pipeline
+            if (flags.contains("predict")) ScrollPredictor.get().setEnabled(true);
+            Server.get().openConnection();
+        }
+
+        for (TECHNIQUE tech : techs) {
+            new MooseSimulator(tech, rate, burst, stopEveryMs, batch, fling).run((long) (durSec * 1e9), udp, local);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Connect and stream memos for a duration
+     * @param durNs Duration (ns)
+     * @param udp Send the memos as datagrams (the TCP connection is only for the negotiation)
+     * @param local Report the stats of the in-process Server (before disconnecting)
+     */
+    public void run(long durNs, boolean udp, boolean local)
+            throws IOException, InterruptedException, InvocationTargetException {
+        final InetSocketAddress server = new InetSocketAddress(HOST, PORT);
+        try (SocketChannel tcp = SocketChannel.open(server);
+             DatagramChannel udpChannel = DatagramChannel.open()) {
+            tcp.socket().setTcpNoDelay(true);
+
+            // Negotiate the binary framing (reply comes as one text line)
+            final byte[] protocol = (new Memo(CONNECTION, PROTOCOL, BIN, MemoCodec.VERSION) + "\n").getBytes();
+            tcp.write(ByteBuffer.wrap(protocol));
+            String line;
+            do { // CONFIG,CREDIT comes first (credits are not respected, to find the saturation point)
+                line = readLine(tcp);
+                System.out.println("Server: " + line);
+            } while (!line.isEmpty() && !line.contains(PROTOCOL));
+
+            final ByteBuffer burstBuffer = ByteBuffer.allocate((mBurst + 1) * MemoCodec.MAX_FRAME_SIZE); // + STOP
+            final long periodNs = 1_000_000_000L / mRate;
+            final long stTime = System.nanoTime();
+            long deadline = stTime;
+            long nextStop = stTime + mStopEveryNs;
+            int seq = 0;
+            int lastFlick = -1;
+
+            while (System.nanoTime() - stTime < durNs) {
+                burstBuffer.clear();
+
+                // Flings: one memo at each release (nothing while gliding)
+                final int flick = (int) ((deadline - stTime) / 1e9 / FLICK_DUR_S);
+                if (mFling && flick != lastFlick) {
+                    final Memo flingMemo = new Memo(FLING, mTech.toString(), FLICK_START_SPEED, 0.0);
+                    flingMemo.setSeq(++seq);
+                    flingMemo.setTimestamp(Utils.nowInMillis());
+                    send(flingMemo, udp, udpChannel, server, burstBuffer);
+                    mNSent++;
+                    lastFlick = flick;
+                }
+
+                // One burst (or one batch)
+                final Memo batch = mBatch ? Memo.newBatch(mTech.toString(), Utils.nowInMillis()) : null;
+                for (int i = 0; !mFling && i < mBurst; i++) {
+                    final Memo memo = nextMemo((deadline + i * periodNs - stTime) / 1e9);
+                    if (batch != null) {
+                        batch.addSample(memo.getValue1Double(), memo.getValue2Double(), (int) (i * periodNs / 1000));
+                    } else {
+                        memo.setSeq(++seq);
+                        memo.setTimestamp(Utils.nowInMillis());
+                        send(memo, udp, udpChannel, server, burstBuffer);
+                    }
+                    mNSent++;
+                }
+                if (batch != null && !mFling) {
+                    batch.setSeq(++seq);
+                    send(batch, udp, udpChannel, server, burstBuffer);
+                }
+
+                // STOP cadence
+                if (mStopEveryNs > 0 && System.nanoTime() >= nextStop) {
+                    final Memo stopMemo = new Memo(SCROLL, mTech.toString(), STOP, STOP);
+                    stopMemo.setSeq(++seq);
+                    send(stopMemo, udp, udpChannel, server, burstBuffer);
+                    mNStops++;
+                    nextStop += mStopEveryNs;
+                }
+
+                burstBuffer.flip();
+                while (burstBuffer.hasRemaining()) tcp.write(burstBuffer);
+
+                // Keep the rate on average (park is ~50 us precise, spin the rest)
+                deadline += periodNs * mBurst;
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {
+                    if (remaining > 100_000) LockSupport.parkNanos(remaining - 60_000);
+                    else Thread.onSpinWait();
+                }
+            }
+
+            final double durSec = (System.nanoTime() - stTime) / 1e9;
+            System.out.printf("%s | sent: %d samples + %d STOPs in %.2f s | rate: %.0f/s (target %d/s) | %s: %d | %s%n",
+                    mTech, mNSent, mNStops, durSec, mNSent / durSec, mRate, mFling ? "fling" : mBatch ? "batch" : "burst", mBurst,
+                    udp ? "UDP" : "TCP");
+
+            if (local) {
+                Thread.sleep(SETTLE_MS);
+                reportServer(mTech);
+            }
+        }
+    }
+
+    /**
+     * Send a memo as a datagram or add it to the burst (written over TCP)
+     * @param memo Memo
+     * @param udp Send as a datagram?
+     * @param udpChannel DatagramChannel
+     * @param server Server address
+     * @param burstBuffer Burst buffer
+     */
+    private static void send(Memo memo, boolean udp, DatagramChannel udpChannel, InetSocketAddress server,
+                             ByteBuffer burstBuffer) throws IOException {
+        if (udp) {
+            udpChannel.send(MemoCodec.encode(memo), server);
+        } else {
+            MemoCodec.encode(memo, burstBuffer);
+        }
+    }
+
+    /**
+     * Create the next memo of the gesture profile
+     * @param t Time since start (s)
+     * @return SCROLL Memo (values in mm)
+     */
+    private Memo nextMemo(double t) {
+        final double dt = 1.0 / mRate;
+        final double value;
+        switch (mTech) {
+            case DRAG -> { // Bell-shaped speed per stroke, alternating direction
+                final double phase = (t % DRAG_DUR_S) / DRAG_DUR_S;
+                final int dir = ((int) (t / DRAG_DUR_S)) % 2 == 0 ? 1 : -1;
+                value = dir * DRAG_PEAK_SPEED * Math.pow(Math.sin(Math.PI * phase), 2) * dt;
+            }
+            case FLICK -> { // Exponential decay after each release
+                final double since = t % FLICK_DUR_S;
+                value = FLICK_START_SPEED * Math.exp(-since / FLICK_TAU_S) * dt;
+            }
+            case RATE_BASED -> value = RB_MAX_RATE * Math.sin(2 * Math.PI * t / RB_PERIOD_S); // Rate, not delta
+            default -> value = 0;
+        }
+
+        return new Memo(SCROLL, mTech.toString(), value, 0.0);
+    }
+
+    /**
+     * Print the server-side counts and latency percentiles of a technique (then reset them)
+     * @param tech Technique
+     */
+    private static void reportServer(TECHNIQUE tech) throws InterruptedException, InvocationTargetException {
+        final Server server = Server.get();
+        for (String stats : server.getClientStats()) System.out.println("  client " + stats);
+        for (String stats : server.getUdpStats()) System.out.println("  udp " + stats);
+        System.out.println("  udp lost: " + server.getNUdpLost() + " | reordered: " + server.getNUdpReordered());
+        System.out.println("  flow control " + FlowControl.get().getStats());
+        if (tech == TECHNIQUE.RATE_BASED) {
+            final ScrollPacer pacer = Controller.get().getScrollPacer();
+            System.out.println("  pacer " + pacer.getJitterStats());
+            pacer.resetJitter();
+        }
+        if (tech == TECHNIQUE.FLICK) System.out.println("  flick engine " + FlickEngine.get().getStats());
+        if (ScrollPredictor.get().isEnabled()) {
+            System.out.println("  predictor " + ScrollPredictor.get().getStats());
+            ScrollPredictor.get().resetStats();
+        }
+        System.out.println("  log writer " + Logger.get().getWriterStats());
+
+        // Coalescer and histograms are only used on the EDT
+        SwingUtilities.invokeAndWait(() -> {
+            System.out.println("  coalescer " + ScrollCoalescer.get().getStats());
+            System.out.println("  frame clock " + ScrollCoalescer.get().getFrameClock().getStats());
+            ScrollCoalescer.get().getFrameClock().resetStats();
+            for (LatencyMonitor.STAGE stage : LatencyMonitor.STAGE.values()) {
+                final LatencyHistogram hist = LatencyMonitor.get().getHistogram(tech, stage);
+                if (hist.getCount() > 0) System.out.println("  " + stage + " " + hist);
+                hist.reset();
+            }
+        });
+    }
+
+    /**
+     * Read one text line (blocking)
+     * @param channel SocketChannel
+     * @return Line (without the line break)
+     */
+    private static String readLine(SocketChannel channel) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        final ByteBuffer oneByte = ByteBuffer.allocate(1);
+        while (channel.read(oneByte) != -1) {
+            oneByte.flip();
+            final char c = (char) oneByte.get();
+            oneByte.clear();
+            if (c == '\n') break;
+            if (c != '\r') sb.append(c);
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,96 @@
+package tools;
+
+import data.Memo;
+import data.MemoCodec;
+import experiment.Experiment;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static data.Consts.STRINGS.*;
+
+/**
+ * Minimal stand-in for the Moose on the loopback (to check the UDP SCROLL path)
+ * Connects over TCP, switches to binary framing and sends SCROLL datagrams,
+ * deliberately dropping and swapping some of them
+ *
+ * Args: [nMemos] [dropProb] [swapProb]
+ */
+public class MooseStandIn {
+    private final static String NAME = "MooseStandIn/";
+    // -------------------------------------------------------------------------------------------
+    private static final String HOST = "localhost";
+    private static final int PORT = 8000;
+
+    /**
+     * MAIN
+     * @param args Arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final int nMemos = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final double dropProb = args.length > 1 ? Double.parseDouble(args[1]) : 0.01;
+        final double swapProb = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+
+        try (Socket socket = new Socket(HOST, PORT);
+             DatagramChannel udp = DatagramChannel.open()) {
+
+            // Negotiate the binary framing (over TCP)
+            final PrintWriter outPW = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+            final BufferedReader inBR = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            outPW.println(new Memo(CONNECTION, PROTOCOL, BIN, MemoCodec.VERSION));
+            String line;
+            do { // CONFIG,CREDIT comes first
+                line = inBR.readLine();
+                System.out.println("Server: " + line);
+            } while (line != null && !line.contains(PROTOCOL));
+
+            // Create the frames (seq from 1)
+            final List<ByteBuffer> frames = new ArrayList<>();
+            final String mode = Experiment.TECHNIQUE.FLICK.toString();
+            for (int seq = 1; seq <= nMemos; seq++) {
+                final Memo memo = new Memo(SCROLL, mode, Math.sin(seq / 50.0), 0.0);
+                memo.setSeq(seq);
+                memo.setTimestamp(System.currentTimeMillis());
+                frames.add(MemoCodec.encode(memo));
+            }
+
+            // Drop and swap some of them
+            int nDropped = 0, nSwapped = 0;
+            for (int i = 0; i < frames.size() - 1; i++) {
+                final double r = ThreadLocalRandom.current().nextDouble();
+                if (r < dropProb) {
+                    frames.remove(i);
+                    nDropped++;
+                } else if (r < dropProb + swapProb) {
+                    Collections.swap(frames, i, i + 1);
+                    nSwapped++;
+                    i++;
+                }
+            }
+
+            // Send
+            final InetSocketAddress server = new InetSocketAddress(HOST, PORT);
+            final long stTime = System.nanoTime();
+            for (ByteBuffer frame : frames) {
+                udp.send(frame, server);
+                Thread.sleep(1);
+            }
+
+            final Memo stopMemo = new Memo(SCROLL, mode, STOP, STOP);
+            stopMemo.setSeq(nMemos + 1);
+            udp.send(MemoCodec.encode(stopMemo), server);
+
+            final double durSec = (System.nanoTime() - stTime) / 1e9;
+            System.out.printf("Sent %d datagrams in %.2f s (%.0f/s) | dropped: %d | swapped pairs: %d%n",
+                    frames.size() + 1, durSec, frames.size() / durSec, nDropped, nSwapped);
+            System.out.println("Expected on the server: lost ~ " + nDropped + ", reordered ~ " + nSwapped);
+        }
+    }
+}
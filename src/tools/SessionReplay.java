@@ -0,0 +1,75 @@
+package tools;
+
+import control.Controller;
+import control.LatencyMonitor;
+import control.ScrollCoalescer;
+import control.Server;
+import experiment.Experiment.TECHNIQUE;
+import gui.Main;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Replays a captured Moose session (see Server.startCapture) into the Server's dispatch path
+ * With a window: starts the experiment as Main does; start a block, then press Enter to replay
+ * Headless: amounts are discarded (only the pipeline is measured)
+ * The Server is never opened: replies (credits, echoes) go nowhere and the live accounts aren't touched
+ *
+ * Args: captureFile [speed (1 = original, 0 = as fast as possible)] [headless]
+ */
+public class SessionReplay {
+    private final static String NAME = "SessionReplay/";
+    // -------------------------------------------------------------------------------------------
+    private static long nScrolls; // Memos that reached the Controller (replay thread)
+
+    /**
+     * MAIN
+     * @param args Arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException, InvocationTargetException {
+        if (args.length < 1) {
+            System.out.println("Args: captureFile [speed] [headless]");
+            return;
+        }
+        final File file = new File(args[0]);
+        final double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+        final boolean headless = args.length > 2 && args[2].equals("headless");
+
+        if (headless) {
+            System.setProperty("java.awt.headless", "true");
+            ScrollCoalescer.get().setTarget((vt, hz) -> {});
+        } else {
+            Main.main(new String[0]);
+            System.out.println("Start a block, then press Enter to replay...");
+            System.in.read();
+        }
+
+        Server.get().setScrollSink(memo -> {
+            nScrolls++;
+            Controller.get().scroll(memo);
+        });
+
+        final long stTime = System.nanoTime();
+        Server.get().replay(file, speed);
+        final double durSec = (System.nanoTime() - stTime) / 1e9;
+        System.out.printf("Replayed %s in %.2f s (speed %s): %d memos dispatched%n",
+                file, durSec, speed == 0 ? "max" : speed, nScrolls);
+
+        // Wait for the last frame, then the stats (on the EDT)
+        Thread.sleep(ScrollCoalescer.FRAME_MS * 4);
+        SwingUtilities.invokeAndWait(() -> {
+            System.out.println("coalescer " + ScrollCoalescer.get().getStats());
+            for (TECHNIQUE tech : TECHNIQUE.values()) {
+                for (LatencyMonitor.STAGE stage : LatencyMonitor.STAGE.values()) {
+                    final LatencyHistogram hist = LatencyMonitor.get().getHistogram(tech, stage);
+                    if (hist.getCount() > 0) System.out.println(tech + " " + stage + " " + hist);
+                }
+            }
+        });
+
+        if (headless) System.exit(0);
+    }
+}
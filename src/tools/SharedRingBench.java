@@ -0,0 +1,154 @@
+package tools;
+
+import control.SharedRing;
+import data.Memo;
+import data.MemoCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import static data.Consts.STRINGS.*;
+
+/**
+ * Latency of one SCROLL memo from the producer to the consumer: shared-memory ring vs. TCP loopback
+ * (the send time travels in the memo, both sides are in this JVM)
+ *
+ * Args: [nMemos] [rateHz]
+ */
+public class SharedRingBench {
+    private final static String NAME = "SharedRingBench/";
+    // -------------------------------------------------------------------------------------------
+
+    /**
+     * MAIN
+     * @param args Arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final int nMemos = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        final int rate = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        System.out.println("ring | " + ring(nMemos, rate));
+        System.out.println("tcp  | " + tcp(nMemos, rate));
+    }
+
+    /**
+     * Send through a shared-memory ring (consumer polls: spin, then yield)
+     * @param nMemos Number of memos
+     * @param rate Memos per second
+     * @return Latency histogram
+     */
+    private static LatencyHistogram ring(int nMemos, int rate) throws IOException, InterruptedException {
+        final File file = File.createTempFile("moose", ".ring");
+        file.deleteOnExit();
+
+        final LatencyHistogram hist = new LatencyHistogram();
+        try (SharedRing consumer = SharedRing.create(file, SharedRing.DEFAULT_CAPACITY);
+             SharedRing producer = SharedRing.open(file)) {
+
+            final Thread consumerThread = new Thread(() -> {
+                int nReceived = 0, nIdle = 0;
+                while (nReceived < nMemos) {
+                    final Memo memo = consumer.poll();
+                    if (memo == null) {
+                        if (++nIdle > 1000) Thread.yield();
+                        else Thread.onSpinWait();
+                        continue;
+                    }
+                    nIdle = 0;
+                    hist.record((System.nanoTime() - (long) memo.getValue1Double()) / 1000);
+                    nReceived++;
+                }
+            });
+            consumerThread.start();
+
+            produce(nMemos, rate, memo -> {
+                while (!producer.offer(memo)) Thread.onSpinWait();
+            });
+            consumerThread.join();
+        }
+
+        return hist;
+    }
+
+    /**
+     * Send through a TCP loopback connection (binary frames, blocking reads)
+     * @param nMemos Number of memos
+     * @param rate Memos per second
+     * @return Latency histogram
+     */
+    private static LatencyHistogram tcp(int nMemos, int rate) throws IOException, InterruptedException {
+        final LatencyHistogram hist = new LatencyHistogram();
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+             SocketChannel producer = SocketChannel.open(serverChannel.getLocalAddress());
+             SocketChannel consumer = serverChannel.accept()) {
+            producer.socket().setTcpNoDelay(true);
+
+            final Thread consumerThread = new Thread(() -> {
+                final ByteBuffer inBuffer = ByteBuffer.allocateDirect(64 * 1024);
+                int nReceived = 0;
+                try {
+                    while (nReceived < nMemos && consumer.read(inBuffer) != -1) {
+                        inBuffer.flip();
+                        while (MemoCodec.availableFrame(inBuffer) != -1) {
+                            final Memo memo = MemoCodec.decode(inBuffer);
+                            hist.record((System.nanoTime() - (long) memo.getValue1Double()) / 1000);
+                            nReceived++;
+                        }
+                        inBuffer.compact();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            consumerThread.start();
+
+            final ByteBuffer frame = ByteBuffer.allocateDirect(MemoCodec.MAX_FRAME_SIZE);
+            produce(nMemos, rate, memo -> {
+                frame.clear();
+                MemoCodec.encode(memo, frame);
+                frame.flip();
+                try {
+                    while (frame.hasRemaining()) producer.write(frame);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            consumerThread.join();
+        }
+
+        return hist;
+    }
+
+    // Where the memos go
+    private interface Sink {
+        void send(Memo memo);
+    }
+
+    /**
+     * Produce memos at a rate (the send time is in value1)
+     * @param nMemos Number of memos
+     * @param rate Memos per second
+     * @param sink Sink
+     */
+    private static void produce(int nMemos, int rate, Sink sink) {
+        final long periodNs = 1_000_000_000L / rate;
+        long deadline = System.nanoTime();
+        for (int i = 0; i < nMemos; i++) {
+            final Memo memo = new Memo(SCROLL, TECH, (double) System.nanoTime(), 0.0);
+            memo.setSeq(i + 1);
+            sink.send(memo);
+
+            deadline += periodNs;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                if (remaining > 100_000) LockSupport.parkNanos(remaining - 60_000);
+                else Thread.onSpinWait();
+            }
+        }
+    }
+}
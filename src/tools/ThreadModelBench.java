@@ -0,0 +1,151 @@
+package tools;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the thread models of the scroll path at Moose-level event rates:
+ * a new thread per event (the old Controller) vs. one long-lived worker that events are handed to
+ * Reports the threads started, the peak thread count and the scheduling latency (event -> task runs)
+ *
+ * Args: [rateHz...] [durationSec]
+ */
+public class ThreadModelBench {
+    private final static String NAME = "ThreadModelBench/";
+    // -------------------------------------------------------------------------------------------
+    private static final int[] DEFAULT_RATES = {100, 1000, 5000};
+    private static final double DEFAULT_DUR_SEC = 3;
+
+    /**
+     * MAIN
+     * @param args Arguments
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int[] rates = DEFAULT_RATES;
+        double durSec = DEFAULT_DUR_SEC;
+        if (args.length > 1) {
+            rates = new int[args.length - 1];
+            for (int i = 0; i < rates.length; i++) rates[i] = Integer.parseInt(args[i]);
+            durSec = Double.parseDouble(args[args.length - 1]);
+        }
+
+        for (int rate : rates) {
+            final int nEvents = (int) (rate * durSec);
+            report("thread per event", rate, threadPerEvent(rate, nEvents));
+            report("long-lived worker", rate, worker(rate, nEvents));
+        }
+    }
+
+    /**
+     * Start a new thread for each event
+     * @param rate Events per second
+     * @param nEvents Number of events
+     * @return Result
+     */
+    private static Result threadPerEvent(int rate, int nEvents) throws InterruptedException {
+        final Result result = new Result(nEvents);
+        result.start();
+
+        final long periodNs = 1_000_000_000L / rate;
+        long deadline = System.nanoTime();
+        for (int i = 0; i < nEvents; i++) {
+            final int ind = i;
+            final long eventNs = System.nanoTime();
+            new Thread(() -> result.latenciesNs[ind] = System.nanoTime() - eventNs).start();
+
+            deadline += periodNs;
+            waitUntil(deadline);
+        }
+
+        result.stop();
+        return result;
+    }
+
+    /**
+     * Hand each event to one long-lived worker
+     * @param rate Events per second
+     * @param nEvents Number of events
+     * @return Result
+     */
+    private static Result worker(int rate, int nEvents) throws InterruptedException {
+        final Result result = new Result(nEvents);
+        final BlockingQueue<Long> events = new ArrayBlockingQueue<>(nEvents + 1);
+        result.start();
+
+        final Thread worker = new Thread(() -> {
+            try {
+                for (int i = 0; i < nEvents; i++) {
+                    final long eventNs = events.take();
+                    result.latenciesNs[i] = System.nanoTime() - eventNs;
+                }
+            } catch (InterruptedException ignored) {
+            }
+        });
+        worker.start();
+
+        final long periodNs = 1_000_000_000L / rate;
+        long deadline = System.nanoTime();
+        for (int i = 0; i < nEvents; i++) {
+            events.add(System.nanoTime());
+
+            deadline += periodNs;
+            waitUntil(deadline);
+        }
+        worker.join();
+
+        result.stop();
+        return result;
+    }
+
+    /**
+     * Wait until a deadline (park, then spin the last part)
+     * @param deadline Time (nanoTime)
+     */
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 100_000) LockSupport.parkNanos(remaining - 60_000);
+            else Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Print a result
+     * @param model Name of the model
+     * @param rate Events per second
+     * @param result Result
+     */
+    private static void report(String model, int rate, Result result) {
+        final LatencyHistogram hist = new LatencyHistogram();
+        for (long latencyNs : result.latenciesNs) hist.record(latencyNs / 1000);
+
+        System.out.printf("%5d Hz | %-17s | threads started: %6d | peak threads: %4d | latency %s%n",
+                rate, model, result.nStarted, result.peakThreads, hist);
+    }
+
+    // Latencies and thread counts of one run
+    private static class Result {
+        final long[] latenciesNs;
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        long nStarted;
+        int peakThreads;
+
+        Result(int nEvents) {
+            latenciesNs = new long[nEvents];
+        }
+
+        void start() {
+            threadBean.resetPeakThreadCount();
+            nStarted = threadBean.getTotalStartedThreadCount();
+        }
+
+        void stop() throws InterruptedException {
+            Thread.sleep(100); // Let the last threads finish
+            nStarted = threadBean.getTotalStartedThreadCount() - nStarted;
+            peakThreads = threadBean.getPeakThreadCount();
+        }
+    }
+}
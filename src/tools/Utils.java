@@ -70,6 +70,15 @@ public class Utils {
         return (int) ((mm / INCH_MM) * PPI);
     }
 
+    /**
+     * mm to pixel (not rounded, for accumulating sub-pixel amounts)
+     * @param mm - millimeters
+     * @return equivalant in (fractional) pixels
+     */
+    public static double mm2pxDouble(double mm) {
+        return (mm / INCH_MM) * PPI;
+    }
+
     /**
      * mm to pixel
      * @param px - pixels
@@ -195,7 +204,7 @@ public class Utils {
      * @return Long timestamp
      */
     public static long nowInMillis() {
-        return Calendar.getInstance().getTimeInMillis();
+        return System.currentTimeMillis(); // Same as the Calendar's time, without creating a Calendar
     }
 
     /**
@@ -0,0 +1,92 @@
+package control;
+
+import data.Memo;
+import data.MemoCodec;
+import experiment.Experiment.TECHNIQUE;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static data.Consts.STRINGS.*;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reading SCROLL memos from a client's buffer up to the Controller (Server.process -> Controller.scroll ->
+ * ScrollCoalescer) doesn't allocate, outside a trial (no sample log) and with the frames applied to nothing
+ * The reads go through the replay entry (no socket), the Controller is the sink
+ */
+class ScrollAllocationTest {
+    private static final int WARMUP_OPS = 100_000; // Let the JIT compile (and escape-analyze) the paths
+    private static final int N_OPS = 500_000;
+    private static final double MAX_BYTES_PER_OP = 1; // Only the MXBean's own allocations are tolerated
+
+    private static final int TEXT_CLIENT = 1;
+    private static final int BINARY_CLIENT = 2;
+
+    private static final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static Server server;
+    private static ByteBuffer textRead; // DRAG and FLICK lines
+    private static ByteBuffer binaryRead; // DRAG and FLICK frames, a DRAG batch
+
+    @BeforeAll
+    static void createReads() {
+        System.setProperty("java.awt.headless", "true");
+        ScrollCoalescer.get().setTarget((vt, hz) -> {});
+        server = new Server(); // Not opened: replies go nowhere
+
+        final String lines = new Memo(SCROLL, TECHNIQUE.DRAG.toString(), 1.25, -0.5) + "\n" +
+                new Memo(SCROLL, TECHNIQUE.FLICK.toString(), -3.0, 0.0) + "\n";
+        textRead = ByteBuffer.wrap(lines.getBytes(StandardCharsets.US_ASCII));
+
+        binaryRead = ByteBuffer.allocate(4 * MemoCodec.MAX_FRAME_SIZE);
+        MemoCodec.encode(new Memo(SCROLL, TECHNIQUE.DRAG.toString(), 1.25, -0.5), binaryRead);
+        MemoCodec.encode(new Memo(SCROLL, TECHNIQUE.FLICK.toString(), -3.0, 0.0), binaryRead);
+        final Memo batch = Memo.newBatch(TECHNIQUE.DRAG.toString(), 1700000000123L);
+        for (int i = 0; i < 16; i++) batch.addSample(0.25 * i, 0, i * 1000);
+        MemoCodec.encode(batch, binaryRead);
+        binaryRead.flip();
+
+        // The binary client negotiates once (its reply is the only memo created)
+        final String negotiation = new Memo(CONNECTION, PROTOCOL, BIN, MemoCodec.VERSION) + "\n";
+        server.replayRead(BINARY_CLIENT,
+                ByteBuffer.wrap(negotiation.getBytes(StandardCharsets.US_ASCII)), System.nanoTime());
+    }
+
+    @Test
+    void textReadDoesNotAllocate() {
+        assertNoAllocation("text read", () -> {
+            textRead.position(0);
+            server.replayRead(TEXT_CLIENT, textRead, System.nanoTime());
+        });
+    }
+
+    @Test
+    void binaryReadDoesNotAllocate() {
+        assertNoAllocation("binary read", () -> {
+            binaryRead.position(0);
+            server.replayRead(BINARY_CLIENT, binaryRead, System.nanoTime());
+        });
+    }
+
+    /**
+     * Run an operation (warm-up, then measured) and check the bytes allocated per operation
+     * @param name Name of the path
+     * @param op Operation
+     */
+    private static void assertNoAllocation(String name, Runnable op) {
+        for (int i = 0; i < WARMUP_OPS; i++) op.run();
+
+        final long tid = Thread.currentThread().getId();
+        final long stBytes = threadBean.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < N_OPS; i++) op.run();
+        final double perOp = (double) (threadBean.getThreadAllocatedBytes(tid) - stBytes) / N_OPS;
+
+        assertTrue(perOp <= MAX_BYTES_PER_OP,
+                () -> String.format("%s allocates %.3f bytes/op (max %.0f)", name, perOp, MAX_BYTES_PER_OP));
+    }
+}
@@ -0,0 +1,158 @@
+package control;
+
+import data.Memo;
+import data.MemoCodec;
+import experiment.Experiment.TECHNIQUE;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static data.Consts.STRINGS.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Replaying a capture headless (the Server is not open): a binary session is decoded as binary right after the
+ * negotiation and all its SCROLL memos reach the sink, replies go nowhere and the live credits are not touched
+ * A session captured by the live Server replays to the same memos in the same order
+ */
+class ServerReplayTest {
+    private static final InetSocketAddress SERVER = new InetSocketAddress("localhost", 8000);
+    private static final long LIVE_TIMEOUT_MS = 5000;
+
+    @TempDir
+    static Path tempDir;
+
+    @Test
+    void binaryCaptureDispatchesAllScrolls() throws IOException {
+        final File file = tempDir.resolve("binary.bin").toFile();
+        try (SessionCapture capture = new SessionCapture(file)) {
+            // Negotiation and the first frames in one read (the reply would be sent before the frames)
+            final ByteBuffer first = ByteBuffer.allocate(16 * MemoCodec.MAX_FRAME_SIZE);
+            first.put((new Memo(CONNECTION, PROTOCOL, BIN, MemoCodec.VERSION) + "\n").getBytes(StandardCharsets.US_ASCII));
+            for (int seq = 1; seq <= 5; seq++) MemoCodec.encode(scrollMemo(seq), first);
+            MemoCodec.encode(new Memo(CONNECTION, KEEP_ALIVE, 0, 0), first); // Echoed (to nobody)
+            MemoCodec.encode(new Memo(CONNECTION, SYNC, 1000.0, 2000.0), first); // Not a live round trip
+            first.flip();
+            capture.write(SessionCapture.TCP, 1, System.nanoTime(), first);
+
+            // A frame split over two reads
+            final ByteBuffer rest = ByteBuffer.allocate(16 * MemoCodec.MAX_FRAME_SIZE);
+            for (int seq = 6; seq <= 10; seq++) MemoCodec.encode(scrollMemo(seq), rest);
+            rest.flip();
+            final int split = rest.limit() / 2 + 3;
+            capture.write(SessionCapture.TCP, 1, System.nanoTime(), rest.duplicate().limit(split));
+            capture.write(SessionCapture.TCP, 1, System.nanoTime(), rest.duplicate().position(split));
+
+            // Datagrams (the duplicate is dropped)
+            for (int seq : new int[]{11, 12, 12}) {
+                capture.write(SessionCapture.UDP, 1, System.nanoTime(), MemoCodec.encode(scrollMemo(seq)));
+            }
+        }
+
+        final List<Integer> seqs = new ArrayList<>();
+        final Server server = new Server();
+        server.setScrollSink(memo -> {
+            seqs.add(memo.getSeq());
+            assertEquals(0, memo.getSourceId(), "Replayed memos have no credits");
+        });
+        final int inFlight = FlowControl.get().getInFlight();
+
+        server.replay(file, 0);
+
+        final List<Integer> expected = new ArrayList<>();
+        for (int seq = 1; seq <= 12; seq++) expected.add(seq);
+        assertEquals(expected, seqs);
+        assertEquals(inFlight, FlowControl.get().getInFlight(), "Live in-flight count");
+    }
+
+    @Test
+    void capturedSessionReplaysTheSameMemos() throws IOException, InterruptedException {
+        final File file = tempDir.resolve("roundtrip.bin").toFile();
+        final List<String> live = Collections.synchronizedList(new ArrayList<>());
+        final int nExpected = 4 + 6 + 1 + 3;
+
+        // Capture: text memos, the negotiation, binary frames (one batch, one fling), datagrams
+        final Server server = new Server();
+        server.setScrollSink(memo -> live.add(describe(memo)));
+        server.openConnection();
+        server.startCapture(file);
+        try (SocketChannel tcp = SocketChannel.open(SERVER);
+             DatagramChannel udp = DatagramChannel.open()) {
+            final StringBuilder text = new StringBuilder();
+            for (int seq = 1; seq <= 4; seq++) text.append(scrollMemo(seq)).append('\n');
+            text.append(new Memo(CONNECTION, PROTOCOL, BIN, MemoCodec.VERSION)).append('\n');
+            write(tcp, ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.US_ASCII)));
+
+            final ByteBuffer frames = ByteBuffer.allocate(16 * MemoCodec.MAX_FRAME_SIZE);
+            for (int seq = 5; seq <= 9; seq++) MemoCodec.encode(scrollMemo(seq), frames);
+            final Memo batch = Memo.newBatch(TECHNIQUE.DRAG.toString(), 1700000000000L);
+            for (int i = 0; i < 8; i++) batch.addSample(0.25 * i, 0, i * 1000);
+            batch.setSeq(10);
+            MemoCodec.encode(batch, frames);
+            write(tcp, frames.flip());
+
+            final Memo fling = new Memo(FLING, TECHNIQUE.FLICK.toString(), 300.0, 0.0);
+            fling.setSeq(11);
+            write(tcp, MemoCodec.encode(fling));
+
+            for (int seq = 12; seq <= 14; seq++) udp.send(MemoCodec.encode(scrollMemo(seq)), SERVER);
+
+            final long deadline = System.currentTimeMillis() + LIVE_TIMEOUT_MS;
+            while (live.size() < nExpected && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        } finally {
+            server.stopCapture();
+            server.closeConnection();
+        }
+        assertEquals(nExpected, live.size(), "Memos received live");
+
+        // Replay
+        final List<String> replayed = new ArrayList<>();
+        final Server replayServer = new Server();
+        replayServer.setScrollSink(memo -> replayed.add(describe(memo)));
+        replayServer.replay(file, 0);
+
+        assertEquals(live, replayed);
+    }
+
+    /**
+     * Write all the bytes to a channel
+     * @param channel SocketChannel (blocking)
+     * @param bytes Bytes
+     */
+    private static void write(SocketChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) channel.write(bytes);
+    }
+
+    /**
+     * Describe what a sink got (the memo goes back to the pool after)
+     * @param memo Memo
+     * @return String (type, values, seq and samples)
+     */
+    private static String describe(Memo memo) {
+        return memo.getActionType() + "," + memo.getModeType() + "," + memo.getValue1Double() + "," +
+                memo.getValue2Double() + " #" + memo.getSeq() + (memo.isBatch() ? " x" + memo.getNSamples() : "");
+    }
+
+    /**
+     * Create a numbered DRAG SCROLL memo
+     * @param seq Sequence number
+     * @return Memo
+     */
+    private static Memo scrollMemo(int seq) {
+        final Memo memo = new Memo(SCROLL, TECHNIQUE.DRAG.toString(), 0.5 * seq, 0.0);
+        memo.setSeq(seq);
+        memo.setTimestamp(1700000000000L + seq);
+        return memo;
+    }
+}
@@ -0,0 +1,105 @@
+package data;
+
+import experiment.Experiment.TECHNIQUE;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static data.Consts.STRINGS.*;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Decoding SCROLL memos into pooled Memos doesn't allocate
+ * Counts the bytes allocated by the test thread (HotSpot's ThreadMXBean) over many decodes, after a warm-up
+ */
+class MemoAllocationTest {
+    private static final int WARMUP_OPS = 200_000; // Let the JIT compile (and escape-analyze) the paths
+    private static final int N_OPS = 1_000_000;
+    private static final double MAX_BYTES_PER_OP = 1; // Only the MXBean's own allocations are tolerated
+
+    private static final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Text line (as the Moose sends it over TCP)
+    private static final StringBuilder line = new StringBuilder("SCROLL,FLICK,-12.375,0.5,4711,1700000000123");
+
+    private static ByteBuffer frames; // Numeric, then text SCROLL frame
+    private static int textStart;
+    private static ByteBuffer batchFrame; // 16 samples
+
+    private static double sink; // Keeps the results alive
+
+    @BeforeAll
+    static void createFrames() {
+        frames = ByteBuffer.allocate(2 * MemoCodec.MAX_FRAME_SIZE);
+        MemoCodec.encode(new Memo(SCROLL, TECHNIQUE.DRAG.toString(), 3.25, -1.5), frames);
+        textStart = frames.position();
+        frames.put(MemoCodec.encode(Memo.valueOf(line.toString())));
+        frames.flip();
+
+        final Memo batch = Memo.newBatch(TECHNIQUE.FLICK.toString(), 1700000000123L);
+        for (int i = 0; i < 16; i++) batch.addSample(0.25 * i, 0, i * 1000);
+        batchFrame = MemoCodec.encode(batch);
+    }
+
+    @Test
+    void textParseDoesNotAllocate() {
+        assertNoAllocation("text parse", () -> {
+            final Memo memo = MemoPool.acquire();
+            MemoParser.parse(line, memo);
+            sink += memo.getValue1Double() + memo.getSeq();
+            MemoPool.release(memo);
+        });
+    }
+
+    @Test
+    void binaryDecodeDoesNotAllocate() {
+        assertNoAllocation("binary decode", () -> {
+            frames.position(0);
+            while (frames.hasRemaining()) {
+                final Memo memo = MemoCodec.decode(frames, MemoPool.acquire());
+                sink += memo.getValue1Double() + memo.getValue2Double();
+                MemoPool.release(memo);
+            }
+        });
+    }
+
+    @Test
+    void binaryTextDecodeDoesNotAllocate() {
+        assertNoAllocation("binary text decode", () -> {
+            frames.position(textStart);
+            final Memo memo = MemoCodec.decode(frames, MemoPool.acquire());
+            sink += memo.getValue1Double() + memo.getTimestamp();
+            MemoPool.release(memo);
+        });
+    }
+
+    @Test
+    void batchDecodeDoesNotAllocate() {
+        assertNoAllocation("batch decode", () -> {
+            batchFrame.position(0);
+            final Memo memo = MemoCodec.decode(batchFrame, MemoPool.acquire());
+            sink += memo.getSampleVt(memo.getNSamples() - 1) + memo.getSampleTimestampMs(0);
+            MemoPool.release(memo);
+        });
+    }
+
+    /**
+     * Run an operation (warm-up, then measured) and check the bytes allocated per operation
+     * @param name Name of the path
+     * @param op Operation
+     */
+    private static void assertNoAllocation(String name, Runnable op) {
+        for (int i = 0; i < WARMUP_OPS; i++) op.run();
+
+        final long tid = Thread.currentThread().getId();
+        final long stBytes = threadBean.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < N_OPS; i++) op.run();
+        final double perOp = (double) (threadBean.getThreadAllocatedBytes(tid) - stBytes) / N_OPS;
+
+        assertTrue(perOp <= MAX_BYTES_PER_OP,
+                () -> String.format("%s allocates %.3f bytes/op (max %.0f)", name, perOp, MAX_BYTES_PER_OP));
+    }
+}